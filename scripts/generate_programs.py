@@ -3,15 +3,15 @@ import multiprocessing
 import os
 import random
 import subprocess
-import time
 import yaml
 
 from generate_strings import generate_constants
 from generate_facts import append_factsheets
 
-CONFIG_FILE = '../config.yaml'
+BATCH_FILE = '../batch.yaml' # every config, for a single run of the generator in batch mode
 PROGRAMS_DIR = '../generated/programs/'
 FULL_PROGRAMS_DIR = '../generated/full_programs/'
+PROGRAM_INDEX = 'generated/programs.index' # relative to the directory of the generator
 TIMEOUT = '60' # in seconds
 FORBID_CYCLES = 'NEGATIVE'
 REPEAT = 10
@@ -19,11 +19,13 @@ REPEAT = 10
 class Config:
     def __init__(self, max_num_nodes, max_num_clauses, num_predicates, max_arity, num_variables, num_constants,
                  num_independent_pairs, count, required_formula=None):
+        self.count = count
         self.forbidCycles = FORBID_CYCLES
         self.timeout = TIMEOUT + 's'
         self.prefix = '_'.join(str(x) for x in [num_predicates, num_variables, max_num_nodes, max_arity,
                                                 num_independent_pairs, count])
 
+        self.programIndex = PROGRAM_INDEX
         self.maxNumNodes = max_num_nodes
         self.maxNumClauses = max_num_clauses
         # making sure that max arity is achieved (the order doesn't matter anyway)
@@ -39,9 +41,9 @@ class Config:
         for p1, p2 in random.sample(potential_pairs, num_independent_pairs):
             self.independentPairs.append({'predicate1': p1, 'predicate2': p2})
 
-    def save(self):
-        stream = open(CONFIG_FILE, 'w')
-        yaml.dump(self, stream)
+    def to_yaml(self):
+        'Everything except count, which the generator doesn\'t know about'
+        return {k: v for k, v in vars(self).items() if k != 'count'}
 
 def remove_programs(d):
     'Remove files from a directory'
@@ -49,22 +51,16 @@ def remove_programs(d):
         if filename.endswith('.pl'):
             os.remove(d + filename)
 
-def generate_programs(args):
+def make_configs(args):
+    'The configs for a combination of arguments that have not been generated yet'
     num_predicates, num_variables, max_num_nodes, max_arity, num_independent_pairs = args
-    print('''number of predicates: {}, number of variables: {}, maximum number of
-          nodes: {}, maximum arity: {}, number of independent pairs: {}'''.
-          format(num_predicates, num_variables, max_num_nodes, max_arity, num_independent_pairs))
+    configs = []
     for i in range(REPEAT):
         config = Config(max_num_nodes, num_predicates, num_predicates,
                         max_arity, num_variables, 0, num_independent_pairs, i)
-        if os.path.exists(PROGRAMS_DIR + config.prefix + '.pl'):
-            continue
-        config.save()
-        generator = subprocess.Popen(['mvn',  'exec:java', '-Dexec.mainClass=model.GeneratePrograms',
-                                      '-Dexec.classpathScope=runtime', '-Dexec.args="normal"'], cwd="../")
-        generator.wait()
-        append_factsheets(config, i)
-        time.sleep(0.1)
+        if not os.path.exists(PROGRAMS_DIR + config.prefix + '.pl'):
+            configs.append(config)
+    return configs
 
 arguments = [(num_predicates, num_variables, max_num_nodes, max_arity, num_independent_pairs)
              for num_predicates, num_variables, max_num_nodes in itertools.product([2, 4, 8], repeat=3)
@@ -72,6 +68,17 @@ arguments = [(num_predicates, num_variables, max_num_nodes, max_arity, num_indep
              for num_independent_pairs in range(int(num_predicates * (num_predicates - 1) / 2) + 1)]
 remove_programs(PROGRAMS_DIR)
 remove_programs(FULL_PROGRAMS_DIR)
+if os.path.exists('../' + PROGRAM_INDEX):
+    os.remove('../' + PROGRAM_INDEX)
 random.shuffle(arguments)
-for args in arguments:
-    generate_programs(args)
+configs = [config for args in arguments for config in make_configs(args)]
+with open(BATCH_FILE, 'w') as stream:
+    yaml.dump_all([config.to_yaml() for config in configs], stream)
+
+# One JVM for all the configs, with a JSON status line for each one
+generator = subprocess.Popen(['mvn',  'exec:java', '-Dexec.mainClass=model.GeneratePrograms',
+                              '-Dexec.classpathScope=runtime', '-Dexec.args=batch batch.yaml'], cwd="../")
+generator.wait()
+for config in configs:
+    if os.path.exists(PROGRAMS_DIR + config.prefix + '.pl'): # not the ones that timed out
+        append_factsheets(config, config.count)
@@ -0,0 +1,15 @@
+import json
+import socket
+
+PORT = 7878 # the default port of the generator in serve mode
+
+def request_programs(config, port=PORT):
+    '''Ask a running generator (started with "serve") for the programs of a config (a dict with the same fields as
+    config.yaml). Returns the programs (a dict from names to text) and the status (a dict, see BatchMode.java)'''
+    with socket.create_connection(('localhost', port)) as connection:
+        connection.sendall(json.dumps(config).encode('utf-8'))
+        connection.shutdown(socket.SHUT_WR) # the generator reads the config until the end
+        with connection.makefile(encoding='utf-8') as reply:
+            lines = [json.loads(line) for line in reply if line.strip()]
+    programs = {line['name']: line['program'] for line in lines[:-1]}
+    return programs, lines[-1]
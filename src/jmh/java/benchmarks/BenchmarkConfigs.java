@@ -0,0 +1,59 @@
+package benchmarks;
+
+import model.Config;
+import model.Formula;
+import model.IndependentPair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** A fixed grid of representative configs, referred to by name in the @Param annotations of the benchmarks */
+final class BenchmarkConfigs {
+
+    private BenchmarkConfigs() {}
+
+    static Config get(String name) {
+        switch (name) {
+            case "tiny":
+                return config(2, 3, "NONE", Arrays.asList(1, 1), 1, 1, new ArrayList<>(), null);
+            case "negativeCycles":
+                return config(4, 6, "NEGATIVE", Arrays.asList(1, 2, 1, 2), 2, 1, new ArrayList<>(), null);
+            case "allCycles":
+                return config(2, 3, "ALL", Arrays.asList(1, 1), 1, 0, new ArrayList<>(), null);
+            case "independence":
+                return config(4, 6, "NEGATIVE", Arrays.asList(1, 2, 1, 2), 2, 1,
+                        Arrays.asList(new IndependentPair("p0", "p1"), new IndependentPair("p0", "p2"),
+                                new IndependentPair("p1", "p3")), null);
+            case "conditionalIndependence":
+                return config(4, 6, "NONE", Arrays.asList(1, 2, 1, 2), 2, 1,
+                        Arrays.asList(new IndependentPair("p0", "p1",
+                                new Formula("AND", Arrays.asList("p2")))), null);
+            case "requiredFormula":
+                return config(4, 5, "NONE", Arrays.asList(1, 1, 2), 2, 1, new ArrayList<>(),
+                        new Formula("OR", Arrays.asList("p0", "p1")));
+            case "large":
+                return config(8, 10, "NEGATIVE", Arrays.asList(1, 2, 3, 1, 2, 1, 2, 3), 3, 2,
+                        Arrays.asList(new IndependentPair("p0", "p1"), new IndependentPair("p2", "p3"),
+                                new IndependentPair("p4", "p5"), new IndependentPair("p6", "p7")), null);
+            default:
+                throw new IllegalArgumentException("unknown benchmark config: " + name);
+        }
+    }
+
+    private static Config config(int maxNumNodes, int maxNumClauses, String forbidCycles, List<Integer> arities,
+                                 int numVariables, int numConstants, List<IndependentPair> independentPairs,
+                                 Formula requiredFormula) {
+        List<String> predicates = new ArrayList<>();
+        for (int i = 0; i < arities.size(); i++)
+            predicates.add("p" + i);
+        List<String> variables = new ArrayList<>();
+        for (int i = 0; i < numVariables; i++)
+            variables.add("X" + i);
+        List<String> constants = new ArrayList<>();
+        for (int i = 0; i < numConstants; i++)
+            constants.add("c" + i);
+        return new Config(maxNumNodes, maxNumClauses, forbidCycles, null, predicates, arities, variables,
+                constants, independentPairs, requiredFormula);
+    }
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import model.Config;
+import model.GeneratorSession;
+import model.Program;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Model construction and solving times over the configs in BenchmarkConfigs. The seed is fixed, so every
+ * invocation follows the same search. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ProgramBenchmark {
+
+    @Param({"tiny", "negativeCycles", "allCycles", "independence", "conditionalIndependence", "requiredFormula",
+            "large"})
+    public String configName;
+
+    @Param({"42"})
+    public long seed;
+
+    private Config config;
+    private GeneratorSession session;
+    private Program program;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        config = BenchmarkConfigs.get(configName);
+        session = new GeneratorSession();
+    }
+
+    /** Posting all the variables and constraints */
+    @Benchmark
+    public Program construction() {
+        return new Program(config, seed);
+    }
+
+    @State(Scope.Thread)
+    public static class FreshProgram {
+        Program program;
+
+        @Setup(Level.Invocation)
+        public void setUp(ProgramBenchmark benchmark) {
+            program = benchmark.session.getProgram(benchmark.config, benchmark.seed);
+        }
+    }
+
+    /** Time to the first solution (or to proving that there are none) */
+    @Benchmark
+    public boolean firstSolution(FreshProgram fresh) {
+        return fresh.program.solve();
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        program = session.getProgram(config, seed);
+    }
+
+    /** Time per extra solution: the search continues from the previous solution and starts over once the solutions
+     * run out */
+    @Benchmark
+    public boolean nextSolution() {
+        if (program.solve())
+            return true;
+        program = session.getProgram(config, seed);
+        return false;
+    }
+}
@@ -5,15 +5,16 @@ import org.chocosolver.solver.constraints.Constraint;
 import org.chocosolver.solver.variables.BoolVar;
 import org.chocosolver.solver.variables.IntVar;
 import org.chocosolver.util.tools.ArrayUtils;
-import propagators.Sign;
+import propagators.RequiredFormulaPropagator;
 import propagators.SignedPredicate;
 
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
 
 public class Body {
 
+    private static final Token[] TOKENS = Token.values();
+
     private final Program program;
     private final IntVar[] treeStructure;
     private final Node[] treeValues;
@@ -21,6 +22,14 @@ public class Body {
     private IntVar[] structuralDecisionVariables;
     private BoolVar hasRequiredFormula;
 
+    // Cached signed predicates (see collectSignedPredicates()) and reusable memory for computing them
+    private final int[] signedPredicates;
+    private int numSignedPredicates;
+    private boolean signedPredicatesAreValid;
+    private final int[] firstChild; // per node, -1 if it has no children
+    private final int[] nextSibling; // per node, -1 if it is the last child
+    private final int[] stack;
+
     Body(Program program, Model model, IntVar assignment, int clauseIndex) {
         this.program = program;
 
@@ -76,7 +85,7 @@ public class Body {
                 model.ifThen(notRoot, cannotBeTrue);
             }
         }
-        setUpRequiredFormulaConstraints(model);
+        setUpRequiredFormulaConstraints(model, clauseIndex);
 
         // Disable the clause (restrict it to a unique value) if required
         Constraint shouldBeDisabled = model.arithm(assignment, "=", program.config.predicates.size());
@@ -92,47 +101,29 @@ public class Body {
         structuralDecisionVariables = treeStructure;
         for (Node treeValue : treeValues)
             structuralDecisionVariables = ArrayUtils.concat(structuralDecisionVariables, treeValue.getPredicate());
+
+        signedPredicates = new int[program.config.maxNumNodes];
+        firstChild = new int[program.config.maxNumNodes];
+        nextSibling = new int[program.config.maxNumNodes];
+        stack = new int[program.config.maxNumNodes];
+        // A determined variable can only get a different value after backtracking if it is instantiated again, so
+        // watching for events is enough to keep the cache up to date
+        for (IntVar v : structuralDecisionVariables)
+            v.addMonitor((variable, event) -> signedPredicatesAreValid = false);
     }
 
     /** Does this clause have the required formula? */
-    private void setUpRequiredFormulaConstraints(Model model) {
-        if (program.config.requiredFormula == null)
+    private void setUpRequiredFormulaConstraints(Model model, int clauseIndex) {
+        Formula formula = program.config.requiredFormula;
+        if (formula == null)
             return;
-
-        BoolVar[][] canBeParentChild = model.boolVarMatrix(program.config.maxNumNodes, program.config.maxNumNodes);
-        for (int i = 0; i < program.config.maxNumNodes; i++) {
-            for (int j = 0; j < program.config.maxNumNodes; j++) {
-                Constraint iCanBeParent = model.arithm(treeValues[i].getPredicate(), "=",
-                        program.config.requiredFormula.getOperator().ordinal());
-                Constraint iAndJRelated = model.arithm(treeStructure[j], "=", i);
-                model.reification(canBeParentChild[i][j], model.and(iCanBeParent, iAndJRelated));
-            }
-        }
-
-        int[] requiredPredicates = program.config.requiredFormula.getPredicates(program.config.predicates);
-        BoolVar[][] canBePredicate = model.boolVarMatrix(program.config.maxNumNodes, requiredPredicates.length);
-        for (int i = 0; i < program.config.maxNumNodes; i++)
-            for (int j = 0; j < requiredPredicates.length; j++)
-                model.reification(canBePredicate[i][j],
-                        model.arithm(treeValues[i].getPredicate(), "=", requiredPredicates[j]));
-
-        BoolVar[][] canBeParentOfPredicate = model.boolVarMatrix(program.config.maxNumNodes,
-                requiredPredicates.length);
-        for (int i = 0; i < program.config.maxNumNodes; i++) {
-            for (int j = 0; j < requiredPredicates.length; j++) {
-                BoolVar[] product = model.boolVarArray(program.config.maxNumNodes);
-                for (int k = 0; k < program.config.maxNumNodes; k++)
-                    model.arithm(canBeParentChild[i][k], "*", canBePredicate[k][j], "=", product[k]).post();
-                model.max(canBeParentOfPredicate[i][j], product).post();
-            }
-        }
-
-        BoolVar[] suitableParents = model.boolVarArray(program.config.maxNumNodes);
-        for (int i = 0; i < program.config.maxNumNodes; i++)
-            model.min(suitableParents[i], canBeParentOfPredicate[i]).post();
-
-        hasRequiredFormula = model.boolVar();
-        model.max(hasRequiredFormula, suitableParents).post();
+        IntVar[] values = new IntVar[treeValues.length];
+        for (int i = 0; i < treeValues.length; i++)
+            values[i] = treeValues[i].getPredicate();
+        hasRequiredFormula = model.boolVar("hasRequiredFormula[" + clauseIndex + "]");
+        new Constraint("required formula " + clauseIndex, new RequiredFormulaPropagator(treeStructure, values,
+                hasRequiredFormula, formula.getOperator().ordinal(),
+                formula.getPredicates(program.config.predicates))).post();
     }
 
     // ========================================= GETTERS OF DECISION VARIABLES =======================================
@@ -184,86 +175,93 @@ public class Body {
         return true;
     }
 
-    /** A list of predicates featured in this clause. The sign of each predicate denotes whether the predicate is
-     * negated or not (after unfolding all the logical connectives). */
-    public List<SignedPredicate> getSignedPredicates() {
-        return getSignedPredicates(0);
-    }
-
-    private List<SignedPredicate> getSignedPredicates(int index) {
-        int valueIndex = treeValues[index].getPredicate().getValue();
-        List<SignedPredicate> predicates = new LinkedList<>();
-
-        // If the node is T (true)
-        if (valueIndex == Token.TRUE.ordinal())
-            return predicates;
-
-        // If the node is a predicate
-        if (valueIndex >= Token.values().length) {
-            predicates.add(new SignedPredicate(valueIndex - Token.values().length, Sign.POS));
-            return predicates;
-        }
-
-        // If the node is a NOT
-        if (valueIndex == 0) {
-            int firstChild = findFirstChild(index);
-
-            // This only happens if the tree constraint is unsatisfied but negative cycle constraint is propagated first
-            if (firstChild >= program.config.maxNumNodes)
-                return predicates;
-
-            List<SignedPredicate> descendants = getSignedPredicates(firstChild);
-            for (SignedPredicate descendant : descendants)
-                descendant.setNegative();
-            return descendants;
+    /** Collect the predicates featured in this (fully determined) clause, each encoded with SignedPredicate to denote
+     * whether the predicate is negated or not (after unfolding all the logical connectives). Returns their number; the
+     * predicates themselves are available from getSignedPredicate(). The result is cached until one of the structural
+     * decision variables changes. */
+    public int collectSignedPredicates() {
+        if (signedPredicatesAreValid)
+            return numSignedPredicates;
+
+        computeChildLists();
+
+        // Depth-first traversal from the root, where the lowest bit of each stack entry says whether we are under a
+        // negation. Every node has one parent, so it can be pushed at most once.
+        numSignedPredicates = 0;
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        while (stackSize > 0) {
+            int entry = stack[--stackSize];
+            int node = entry >> 1;
+            int negative = entry & 1;
+            int valueIndex = treeValues[node].getPredicate().getValue();
+            if (valueIndex >= Token.values().length) {
+                signedPredicates[numSignedPredicates++] = SignedPredicate.encode(valueIndex - Token.values().length,
+                        negative == 1);
+            } else if (valueIndex != Token.TRUE.ordinal()) {
+                // A NOT makes everything below it negative (and it never becomes positive again). If the tree
+                // constraint is unsatisfied but this is propagated first, the NOT might not have a child.
+                if (valueIndex == Token.NOT.ordinal())
+                    negative = 1;
+                for (int child = firstChild[node]; child >= 0; child = nextSibling[child])
+                    stack[stackSize++] = child << 1 | negative;
+            }
         }
+        signedPredicatesAreValid = true;
+        return numSignedPredicates;
+    }
 
-        // If the node is AND/OR
-        for (int i = 0; i < program.config.maxNumNodes; i++) {
-            if (i != index && treeStructure[i].getValue() == index)
-                predicates.addAll(getSignedPredicates(i));
-        }
-        return predicates;
+    /** One of the predicates collected by collectSignedPredicates() */
+    public int getSignedPredicate(int i) {
+        return signedPredicates[i];
     }
 
-    /** Return the first index which is a child of the given parent */
-    private int findFirstChild(int parent) {
-        int i = 0;
-        for (; i < program.config.maxNumNodes; i++)
-            if (i != parent && treeStructure[i].getValue() == parent)
-                break;
-        return i;
+    /** Fill firstChild and nextSibling so that the children of each node can be listed in increasing order */
+    private void computeChildLists() {
+        Arrays.fill(firstChild, -1);
+        for (int i = treeStructure.length - 1; i > 0; i--) {
+            int parent = treeStructure[i].getValue();
+            if (parent != i) {
+                nextSibling[i] = firstChild[parent];
+                firstChild[parent] = i;
+            }
+        }
     }
 
     // ================================================== OUTPUT ==================================================
 
+    /** Is this (fully-determined) body just 'true'? */
+    boolean isEmpty() {
+        return treeValues[0].getPredicate().getValue() == Token.TRUE.ordinal();
+    }
+
     /** For fully-determined bodies */
-    @Override
-    public String toString() {
-        return treeToString(0) + ".";
+    void write(Appendable out) throws IOException {
+        computeChildLists();
+        writeTree(out, 0);
     }
 
-    private String treeToString(int i) {
+    private void writeTree(Appendable out, int i) throws IOException {
         int value = treeValues[i].getPredicate().getValue();
-        if (value >= Token.TRUE.ordinal())
-            return treeValues[i].toString();
-        Token token = Token.values()[value];
-        if (token == Token.NOT)
-            return token + "(" + treeToString(findFirstChild(i)) + ")";
-
-        boolean first = true;
-        StringBuilder output = new StringBuilder();
-        for (int j = 0; j < program.config.maxNumNodes; j++) {
-            if (j != i && treeStructure[j].getValue() == i) {
-                if (first) {
-                    first = false;
-                } else {
-                    output.append(token).append(" ");
-                }
-                output.append("(").append(treeToString(j)).append(")");
-            }
+        if (value >= Token.TRUE.ordinal()) {
+            treeValues[i].write(out);
+            return;
+        }
+        Token token = TOKENS[value];
+        if (token == Token.NOT) {
+            out.append(token.toString()).append('(');
+            writeTree(out, firstChild[i]);
+            out.append(')');
+            return;
+        }
+
+        for (int child = firstChild[i]; child >= 0; child = nextSibling[child]) {
+            if (child != firstChild[i])
+                out.append(token.toString()).append(' ');
+            out.append('(');
+            writeTree(out, child);
+            out.append(')');
         }
-        return output.toString();
     }
 
     /** For partially-determined bodies */
@@ -0,0 +1,66 @@
+package model;
+
+import java.nio.ByteBuffer;
+
+/** Encodes everything appended to it as UTF-8 straight into a byte buffer (throwing a BufferOverflowException if it
+ * runs out of space). Unpaired surrogates become question marks. */
+class ByteBufferAppendable implements Appendable {
+
+    private final ByteBuffer buffer;
+    private char highSurrogate; // the first half of a surrogate pair, if we're waiting for the second half
+
+    ByteBufferAppendable(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq) {
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) {
+        for (int i = start; i < end; i++)
+            append(csq.charAt(i));
+        return this;
+    }
+
+    @Override
+    public Appendable append(char c) {
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                putCodePoint(Character.toCodePoint(high, c));
+                return this;
+            }
+            buffer.put((byte) '?');
+        }
+        if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buffer.put((byte) '?');
+        } else {
+            putCodePoint(c);
+        }
+        return this;
+    }
+
+    private void putCodePoint(int codePoint) {
+        if (codePoint < 0x80) {
+            buffer.put((byte) codePoint);
+        } else if (codePoint < 0x800) {
+            buffer.put((byte) (0xC0 | codePoint >> 6));
+            buffer.put((byte) (0x80 | codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            buffer.put((byte) (0xE0 | codePoint >> 12));
+            buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+            buffer.put((byte) (0x80 | codePoint & 0x3F));
+        } else {
+            buffer.put((byte) (0xF0 | codePoint >> 18));
+            buffer.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+            buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+            buffer.put((byte) (0x80 | codePoint & 0x3F));
+        }
+    }
+}
@@ -12,8 +12,11 @@ public class Config {
 
     public static final String FILENAME = "config.yaml";
     public static final String PROGRAM_COUNTS_FILENAME = "data/program_counts.csv";
+    public static final String VERIFICATION_REPORT_FILENAME = "data/program_counts_report.csv";
+    public static final SearchStrategy DEFAULT_SEARCH = SearchStrategy.SEMI_RANDOM;
+    public static final SearchWrapper DEFAULT_SEARCH_WRAPPER = SearchWrapper.NONE;
 
-    public final boolean allowEmptyBodies = false;
+    public boolean allowEmptyBodies = false; // i.e., facts
     public final boolean defineEachPredicate = true;
     public final boolean printDebugInfo = false;
     public final boolean printProgramsWhileCounting = false;
@@ -26,7 +29,23 @@ public class Config {
     public String forbidCycles;
     public String prefix; // for output files
     public String timeout;
+    public Long seed; // for the random choices of normal and batch mode, or null for different choices every run
     public Formula requiredFormula;
+    public int numThreads = 1; // more than one thread means portfolio solving with differently seeded models
+    public String output = "FILES"; // see OutputFormat
+    public String programIndex; // a file of the programs generated so far, across runs (see ProgramIndex), or null
+    public String search = DEFAULT_SEARCH.name(); // see SearchStrategy
+    public String searchWrapper = DEFAULT_SEARCH_WRAPPER.name(); // see SearchWrapper
+    public String restarts = "GEOMETRIC"; // see RestartPolicy
+    public boolean restartOnSolutions = false; // each program comes from a fresh random descent (and can't repeat)
+    public boolean nogoodsOnRestart = false; // remember the parts of the search tree that failed before a restart
+    public boolean nearUniform = false; // sample with XOR constraints (see HashingSampler) instead of plain search
+    public boolean profilePropagation = false; // collect statistics about propagators (see PropagationProfile)
+    public double xorDensity = 0.5; // the probability of each decision variable being in each XOR constraint
+    public int domainSize = 100; // the number of constants for facts and grounding (including the ones above)
+    public int numFacts = 0; // the size of the fact sheet added to each program (see FactSheet), 0 for rules only
+    public double proportionProbabilistic = 0.5; // of the facts
+    public long maxGroundRules = 0; // skip programs with bigger ground programs (see GroundingEstimator), 0 to keep all
 
     public List<String> predicates;
     public List<Integer> arities;
@@ -63,6 +82,15 @@ public class Config {
         return mapper.readValue(new File(FILENAME), Config.class);
     }
 
+    /** Everything that determines the model (as opposed to how it is solved and where the output goes). Two configs
+     * with the same shape can share a Program model. */
+    public String getShape() {
+        return String.join(";", Integer.toString(maxNumNodes), Integer.toString(maxNumClauses), forbidCycles,
+                predicates.toString(), arities.toString(), variables.toString(), constants.toString(),
+                independentPairs.toString(), String.valueOf(requiredFormula), Boolean.toString(allowEmptyBodies),
+                Boolean.toString(profilePropagation));
+    }
+
     public ForbidCycles getForbidCycles() {
         if (forbidCycles.equals("NONE"))
             return ForbidCycles.NONE;
@@ -72,4 +100,44 @@ public class Config {
             return ForbidCycles.ALL;
         throw new IllegalArgumentException();
     }
+
+    public RestartPolicy getRestartPolicy() {
+        if (restarts.equals("NONE"))
+            return RestartPolicy.NONE;
+        if (restarts.equals("GEOMETRIC"))
+            return RestartPolicy.GEOMETRIC;
+        if (restarts.equals("LUBY"))
+            return RestartPolicy.LUBY;
+        throw new IllegalArgumentException();
+    }
+
+    public SearchStrategy getSearchStrategy() {
+        if (search.equals("SEMI_RANDOM"))
+            return SearchStrategy.SEMI_RANDOM;
+        if (search.equals("DOM_WDEG"))
+            return SearchStrategy.DOM_WDEG;
+        if (search.equals("ACTIVITY"))
+            return SearchStrategy.ACTIVITY;
+        throw new IllegalArgumentException();
+    }
+
+    public SearchWrapper getSearchWrapper() {
+        if (searchWrapper.equals("NONE"))
+            return SearchWrapper.NONE;
+        if (searchWrapper.equals("LAST_CONFLICT"))
+            return SearchWrapper.LAST_CONFLICT;
+        if (searchWrapper.equals("CONFLICT_ORDERING"))
+            return SearchWrapper.CONFLICT_ORDERING;
+        throw new IllegalArgumentException();
+    }
+
+    public OutputFormat getOutputFormat() {
+        if (output.equals("FILES"))
+            return OutputFormat.FILES;
+        if (output.equals("APPENDED"))
+            return OutputFormat.APPENDED;
+        if (output.equals("JSONL"))
+            return OutputFormat.JSONL;
+        throw new IllegalArgumentException();
+    }
 }
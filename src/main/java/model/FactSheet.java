@@ -0,0 +1,159 @@
+package model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/** A random fact sheet for the predicates of a config, to be appended to generated rules: config.numFacts distinct
+ * ground atoms over a domain of config.domainSize constants (the constants of the config, then ca, cb, ...), the
+ * first config.proportionProbabilistic of them with probabilities, and a query (an atom that is not listed). Atoms
+ * are sampled uniformly without replacement with Floyd's algorithm, so dense fact sheets take no longer than sparse
+ * ones. */
+public class FactSheet {
+
+    private static final double MAX_PROPORTION_LISTED = 0.75; // of all the atoms
+    private static final String CONSTANT_PREFIX = "c";
+
+    private final Config config;
+    private final Random rng;
+    private final List<String> domain = new ArrayList<>();
+    private final long[] firstAtom; // per predicate (and one more), the index of its first atom
+    private final int numAtoms; // the facts and the query
+    private final int numProbabilistic;
+
+    // The current sample: indices of atoms (the query first) and the probabilities of the probabilistic facts
+    private final long[] atoms;
+    private final double[] probabilities;
+    private final int[] arguments; // reusable memory for decoding atoms
+
+    public FactSheet(Config config, long seed) {
+        this.config = config;
+        rng = new Random(seed);
+
+        domain.addAll(config.constants);
+        for (String name = "a"; domain.size() < config.domainSize; name = nextName(name))
+            if (!config.constants.contains(CONSTANT_PREFIX + name))
+                domain.add(CONSTANT_PREFIX + name);
+
+        firstAtom = new long[config.predicates.size() + 1];
+        for (int i = 0; i < config.predicates.size(); i++) {
+            long numAtoms = 1;
+            for (int j = 0; j < config.arities.get(i); j++)
+                numAtoms = Math.multiplyExact(numAtoms, domain.size());
+            firstAtom[i + 1] = Math.addExact(firstAtom[i], numAtoms);
+        }
+        long total = firstAtom[firstAtom.length - 1];
+        int numFacts = (int) Math.min(config.numFacts, (long) (MAX_PROPORTION_LISTED * total));
+        numAtoms = (int) Math.min(numFacts + 1L, total);
+        numProbabilistic = (int) Math.round(config.proportionProbabilistic * (numAtoms - 1));
+
+        atoms = new long[numAtoms];
+        probabilities = new double[numProbabilistic];
+        arguments = new int[config.arities.isEmpty() ? 0 : Collections.max(config.arities)];
+    }
+
+    /** Choose new facts, probabilities, and query */
+    public void sample() {
+        // Floyd's algorithm picks a uniformly random subset, then the order is shuffled
+        long total = firstAtom[firstAtom.length - 1];
+        Set<Long> chosen = new HashSet<>();
+        int i = 0;
+        for (long j = total - numAtoms; j < total; j++) {
+            long candidate = nextLong(j + 1);
+            if (!chosen.add(candidate)) {
+                candidate = j; // never chosen before, since it's bigger than every earlier candidate
+                chosen.add(j);
+            }
+            atoms[i++] = candidate;
+        }
+        for (i = atoms.length - 1; i > 0; i--) {
+            int j = rng.nextInt(i + 1);
+            long atom = atoms[i];
+            atoms[i] = atoms[j];
+            atoms[j] = atom;
+        }
+        for (i = 0; i < probabilities.length; i++)
+            probabilities[i] = config.probabilities[rng.nextInt(config.probabilities.length)];
+    }
+
+    /** Tell the estimator about the facts of the current sample */
+    public void addTo(GroundingEstimator estimator) {
+        for (int i = 1; i < atoms.length; i++) {
+            int predicate = decode(atoms[i]);
+            int[] fact = new int[config.arities.get(predicate)];
+            System.arraycopy(arguments, 0, fact, 0, fact.length);
+            estimator.addFact(predicate, fact);
+        }
+    }
+
+    /** Write the facts of the current sample, then the query */
+    public void write(Appendable out) throws IOException {
+        for (int i = 1; i < atoms.length; i++) {
+            if (i <= numProbabilistic && probabilities[i - 1] < 1)
+                out.append(Double.toString(probabilities[i - 1])).append(" :: ");
+            writeAtom(out, atoms[i]);
+            out.append(".\n");
+        }
+        if (atoms.length > 0) {
+            out.append("query(");
+            writeAtom(out, atoms[0]);
+            out.append(").\n");
+        }
+    }
+
+    /** In the same format as Program.writeAtom() */
+    private void writeAtom(Appendable out, long atom) throws IOException {
+        int predicate = decode(atom);
+        out.append(config.predicates.get(predicate));
+        int arity = config.arities.get(predicate);
+        if (arity == 0)
+            return;
+        out.append('(');
+        for (int i = 0; i < arity; i++) {
+            if (i > 0)
+                out.append(", ");
+            out.append(domain.get(arguments[i]));
+        }
+        out.append(')');
+    }
+
+    /** Returns the predicate of the atom and puts its arguments (as indices into the domain) in arguments */
+    private int decode(long atom) {
+        int predicate = 0;
+        while (firstAtom[predicate + 1] <= atom)
+            predicate++;
+        long offset = atom - firstAtom[predicate];
+        for (int i = config.arities.get(predicate) - 1; i >= 0; i--) {
+            arguments[i] = (int) (offset % domain.size());
+            offset /= domain.size();
+        }
+        return predicate;
+    }
+
+    /** Uniformly random in [0, bound) */
+    private long nextLong(long bound) {
+        long bits;
+        long value;
+        do {
+            bits = rng.nextLong() >>> 1;
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0); // the last, incomplete range of values would be biased
+        return value;
+    }
+
+    /** a, b, ..., z, aa, ab, ... (as in scripts/generate_strings.py) */
+    private static String nextName(String name) {
+        char[] letters = name.toCharArray();
+        int i = letters.length - 1;
+        while (i >= 0 && letters[i] == 'z')
+            letters[i--] = 'a';
+        if (i < 0)
+            return "a" + new String(letters);
+        letters[i]++;
+        return new String(letters);
+    }
+}
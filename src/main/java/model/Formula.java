@@ -39,4 +39,9 @@ public class Formula {
         }
         return intPredicates;
     }
+
+    @Override
+    public String toString() {
+        return operator + predicates;
+    }
 }
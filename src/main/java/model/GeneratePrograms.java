@@ -1,29 +1,54 @@
 package model;
 import java.io.*;
 
+import modes.BatchMode;
 import modes.CountingMode;
 import modes.ExperimentalMode;
 import modes.NormalMode;
+import modes.ServerMode;
 
 class GeneratePrograms {
 
-    public static void main(String[] args) throws IOException {
-        if (args.length != 1) {
-            System.out.println("The generator has three modes: normal, count, experiment.");
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("The generator has six modes: normal, batch, serve, count, verify, experiment.");
             return;
         }
         switch (args[0]) {
             case "count":
                 CountingMode.run();
                 break;
+            case "verify":
+                CountingMode.verify(getNumThreads(args, 1));
+                break;
             case "experiment":
-                ExperimentalMode.run();
+                ExperimentalMode.run(getNumThreads(args, 1),
+                        args.length > 2 ? SearchStrategy.valueOf(args[2]) : Config.DEFAULT_SEARCH,
+                        args.length > 3 ? SearchWrapper.valueOf(args[3]) : Config.DEFAULT_SEARCH_WRAPPER);
                 break;
             case "normal":
                 NormalMode.run();
                 break;
+            case "batch":
+                if (args.length < 2) {
+                    System.out.println("Usage: batch <configs.yaml|configs.jsonl> [threads]");
+                    return;
+                }
+                BatchMode.run(args[1], getNumThreads(args, 2));
+                break;
+            case "serve":
+                ServerMode.run(args.length > 1 ? Integer.parseInt(args[1]) : ServerMode.DEFAULT_PORT,
+                        getNumThreads(args, 2));
+                break;
             default:
-                System.out.println("The generator has three modes: normal, count, experiment.");
+                System.out.println("The generator has six modes: normal, batch, serve, count, verify, experiment.");
         }
     }
+
+    /** The optional argument at the given position, defaulting to the number of processors */
+    private static int getNumThreads(String[] args, int position) {
+        if (args.length > position)
+            return Integer.parseInt(args[position]);
+        return Runtime.getRuntime().availableProcessors();
+    }
 }
@@ -0,0 +1,18 @@
+package model;
+
+import java.io.IOException;
+
+/** A fully-determined program, as it comes out of Program (after a solution), ProgramSampler, or HashingSampler */
+public interface GeneratedProgram {
+
+    /** Write the rules, with randomly chosen probabilities */
+    void write(Appendable out) throws IOException;
+
+    /** A 64-bit hash that tells programs apart (see ProgramIndex and ProgramHash). Programs over the same predicates,
+     * variables, constants, and size limits have the same hash if and only if they have the same rules (up to clause
+     * order), bar collisions, whatever constraints and generator produced them. */
+    long getHash();
+
+    /** An estimator of the ground program over config.domainSize constants, with no facts yet */
+    GroundingEstimator getGroundingEstimator();
+}
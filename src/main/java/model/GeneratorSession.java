@@ -0,0 +1,39 @@
+package model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Keeps built Program models around so that repeated runs with the same config shape only pay for model
+ * construction once. A session is not thread-safe: each thread should have its own. */
+public class GeneratorSession {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final Map<String, Program> programs; // indexed by config shape, least recently used first
+
+    public GeneratorSession() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public GeneratorSession(int capacity) {
+        programs = new LinkedHashMap<String, Program>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Program> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** A model for the given config, ready to be solved from scratch with a search strategy seeded by the seed */
+    public Program getProgram(Config config, long seed) {
+        String shape = config.getShape();
+        Program program = programs.get(shape);
+        if (program == null) {
+            program = new Program(config, seed);
+            programs.put(shape, program);
+        } else {
+            program.reset(config, seed);
+        }
+        return program;
+    }
+}
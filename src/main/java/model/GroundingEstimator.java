@@ -0,0 +1,540 @@
+package model;
+
+import org.chocosolver.solver.variables.IntVar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** How big the ground program of a (fully-determined) Program is, without running ProbLog: the number of ground rules
+ * and atoms, and the number of cyclic components of the ground dependency graph (the main source of trouble for
+ * knowledge compilation). The domain consists of the constants of the config followed by enough other constants to
+ * reach the domain size.
+ *
+ * Grounding is bottom-up from the facts. If no facts are given, every atom over the domain could be a fact, which is
+ * the worst case for any fact sheet: the variables of positive atoms then simply range over the domain (and only the
+ * atoms that occur in the ground program are counted). Negation is over-approximated: a negated formula never rules
+ * anything out (but its atoms still depend on the head). Grounding stops as soon as the ground program is known to be
+ * bigger than the limit, which is enough to filter out hopeless programs. It also stops when it takes too much work,
+ * in which case the size is unknown. */
+public class GroundingEstimator {
+
+    /** The sizes of the ground program. If the estimate is not complete, they are only lower bounds: either the
+     * ground program is too big, or grounding ran out of work before finding out. */
+    public static class Estimate {
+
+        public final long numGroundRules;
+        public final int numGroundAtoms;
+        public final int numCyclicComponents;
+        public final int largestCyclicComponent; // the number of atoms in it
+        public final boolean complete;
+        public final boolean tooBig; // there are more ground rules than the limit
+
+        Estimate(long numGroundRules, int numGroundAtoms, int numCyclicComponents, int largestCyclicComponent,
+                 boolean complete, boolean tooBig) {
+            this.numGroundRules = numGroundRules;
+            this.numGroundAtoms = numGroundAtoms;
+            this.numCyclicComponents = numCyclicComponents;
+            this.largestCyclicComponent = largestCyclicComponent;
+            this.complete = complete;
+            this.tooBig = tooBig;
+        }
+
+        @Override
+        public String toString() {
+            if (tooBig)
+                return "at least " + numGroundRules + " rules";
+            if (!complete)
+                return "unknown (at least " + numGroundRules + " rules and " + numGroundAtoms + " atoms)";
+            return numGroundRules + " rules, " + numGroundAtoms + " atoms, " + numCyclicComponents +
+                    " cyclic components (the largest with " + largestCyclicComponent + " atoms)";
+        }
+    }
+
+    public static final long DEFAULT_MAX_WORK = 10_000_000; // about a tenth of a second
+
+    // An atom with arguments that are constants (>= 0) or variables (~variable)
+    private static class Atom {
+
+        private final int predicate;
+        private final int[] arguments;
+
+        Atom(int predicate, int[] arguments) {
+            this.predicate = predicate;
+            this.arguments = arguments;
+        }
+    }
+
+    // A disjunct of a body in disjunctive normal form. The atoms under negations are kept for dependencies only.
+    private static class Conjunct {
+
+        private final List<Atom> positive = new ArrayList<>();
+        private final List<Atom> negative = new ArrayList<>();
+
+        Conjunct merge(Conjunct other) {
+            Conjunct merged = new Conjunct();
+            merged.positive.addAll(positive);
+            merged.positive.addAll(other.positive);
+            merged.negative.addAll(negative);
+            merged.negative.addAll(other.negative);
+            return merged;
+        }
+    }
+
+    private static class Clause {
+
+        private final Atom head;
+        private final List<Conjunct> body;
+
+        Clause(Atom head, List<Conjunct> body) {
+            this.head = head;
+            this.body = body;
+        }
+    }
+
+    private final int[] arities;
+    private final int maxArity;
+    private final int numVariables;
+    private final int domainSize;
+    private final List<Clause> clauses;
+    private final List<int[]> facts = new ArrayList<>(); // the predicate, then the arguments
+
+    // Grounding state. Atoms are numbered in the order in which they are found.
+    private boolean open; // without facts, every atom can be true
+    private List<List<int[]>> atoms; // per predicate, the arguments of its ground atoms
+    private Map<Long, List<int[]>> atomsByArgument; // the same, by predicate, position, and constant (see indexKey())
+    private Map<Long, Integer> atomIds;
+    private long[] edges; // from << 32 | to
+    private int numEdges;
+    private long numGroundRules;
+    private long work;
+    private long maxWork;
+    private long maxGroundRules;
+    private boolean changed;
+    private boolean gaveUp;
+    private boolean tooBig;
+
+    public GroundingEstimator(Program program, int domainSize) {
+        this(program.config, program.maxArity, domainSize);
+        for (int i = 0; i < program.config.maxNumClauses; i++) {
+            int head = program.clauseAssignments[i].getValue();
+            if (head == arities.length)
+                continue; // a disabled clause
+            readClause(program, i, head);
+        }
+    }
+
+    /** An estimator without clauses, to be added with addClause() */
+    GroundingEstimator(Config config, int maxArity, int domainSize) {
+        arities = config.arities.stream().mapToInt(Integer::intValue).toArray();
+        this.maxArity = maxArity;
+        numVariables = config.variables.size();
+        this.domainSize = Math.max(domainSize, config.constants.size());
+        clauses = new ArrayList<>();
+    }
+
+    /** The same program without any facts */
+    GroundingEstimator(GroundingEstimator other) {
+        arities = other.arities;
+        maxArity = other.maxArity;
+        numVariables = other.numVariables;
+        domainSize = other.domainSize;
+        clauses = other.clauses;
+    }
+
+    /** Add a ground atom to the fact sheet. The arguments are indices into the domain. */
+    public void addFact(int predicate, int[] arguments) {
+        int[] fact = new int[arguments.length + 1];
+        fact[0] = predicate;
+        System.arraycopy(arguments, 0, fact, 1, arguments.length);
+        facts.add(fact);
+    }
+
+    public Estimate estimate(long maxGroundRules) {
+        return estimate(maxGroundRules, DEFAULT_MAX_WORK);
+    }
+
+    /** Ground until the ground program has more than maxGroundRules rules or maxWork atoms have been looked at */
+    public Estimate estimate(long maxGroundRules, long maxWork) {
+        if ((arities.length + 1) * Math.pow(domainSize + 1, maxArity) >= Long.MAX_VALUE)
+            throw new IllegalArgumentException("the domain is too big to tell ground atoms apart");
+        this.maxGroundRules = maxGroundRules;
+        this.maxWork = maxWork;
+        open = facts.isEmpty();
+        atoms = new ArrayList<>();
+        for (int i = 0; i < arities.length; i++)
+            atoms.add(new ArrayList<>());
+        atomsByArgument = new HashMap<>();
+        atomIds = new HashMap<>();
+        edges = new long[16];
+        work = 0;
+        gaveUp = false;
+        tooBig = false;
+        for (int[] fact : facts)
+            addAtom(fact[0], Arrays.copyOfRange(fact, 1, fact.length));
+
+        // Naive bottom-up evaluation: the last round (that finds nothing new) has exactly the rules of the ground
+        // program
+        changed = true;
+        while (changed && !gaveUp) {
+            changed = false;
+            numGroundRules = 0;
+            numEdges = 0;
+            for (Clause clause : clauses) {
+                for (Conjunct conjunct : clause.body) {
+                    int[] substitution = new int[numVariables];
+                    Arrays.fill(substitution, -1);
+                    join(clause, conjunct, 0, substitution);
+                }
+            }
+        }
+        if (gaveUp)
+            return new Estimate(numGroundRules, atomIds.size(), 0, 0, false, tooBig);
+        return countCyclicComponents();
+    }
+
+    // ================================================== THE PROGRAM ==================================================
+
+    /** Add a clause. Arguments are constants (>= 0) or variables (~variable). The body is a tree of nodes given by
+     * their parents (the root, node 0, being its own parent), values (tokens first, then predicates, as in Node), and
+     * arguments (null for tokens). */
+    void addClause(int head, int[] headArguments, int[] values, int[] parents, int[][] nodeArguments) {
+        List<List<Integer>> children = new ArrayList<>();
+        for (int i = 0; i < parents.length; i++)
+            children.add(new ArrayList<>());
+        for (int i = 1; i < parents.length; i++)
+            if (parents[i] != i)
+                children.get(parents[i]).add(i);
+
+        Atom[] nodeAtoms = new Atom[values.length];
+        for (int i = 0; i < values.length; i++)
+            if (values[i] >= Token.values().length)
+                nodeAtoms[i] = new Atom(values[i] - Token.values().length, nodeArguments[i]);
+        List<Conjunct> body = toDisjunctiveNormalForm(0, values, children, nodeAtoms);
+        clauses.add(new Clause(new Atom(head, headArguments), body));
+    }
+
+    private void readClause(Program program, int clause, int head) {
+        Body body = program.bodies[clause];
+        IntVar[] structure = body.getTreeStructure();
+        IntVar[] predicates = body.getPredicates();
+        IntVar[] arguments = body.getArguments();
+        int[] values = new int[structure.length];
+        int[] parents = new int[structure.length];
+        int[][] nodeArguments = new int[structure.length][];
+        for (int i = 0; i < structure.length; i++) {
+            values[i] = predicates[i].getValue();
+            parents[i] = structure[i].getValue();
+            int predicate = values[i] - Token.values().length;
+            if (predicate >= 0)
+                nodeArguments[i] = toArguments(Arrays.copyOfRange(arguments, i * maxArity, (i + 1) * maxArity),
+                        arities[predicate]);
+        }
+        addClause(head, toArguments(program.getHeadArguments(clause), arities[head]), values, parents,
+                nodeArguments);
+    }
+
+    private int[] toArguments(IntVar[] variables, int arity) {
+        int[] arguments = new int[arity];
+        for (int i = 0; i < arity; i++) {
+            int value = variables[i].getValue();
+            arguments[i] = value < numVariables ? ~value : value - numVariables;
+        }
+        return arguments;
+    }
+
+    private List<Conjunct> toDisjunctiveNormalForm(int node, int[] values, List<List<Integer>> children,
+                                                   Atom[] nodeAtoms) {
+        if (nodeAtoms[node] != null) {
+            Conjunct conjunct = new Conjunct();
+            conjunct.positive.add(nodeAtoms[node]);
+            return Collections.singletonList(conjunct);
+        }
+        Token token = Token.values()[values[node]];
+        List<Conjunct> result = new ArrayList<>();
+        switch (token) {
+            case NOT:
+                Conjunct conjunct = new Conjunct();
+                collectAtoms(node, children, nodeAtoms, conjunct.negative);
+                result.add(conjunct);
+                break;
+            case AND:
+                result.add(new Conjunct());
+                for (int child : children.get(node)) {
+                    List<Conjunct> product = new ArrayList<>();
+                    for (Conjunct left : result)
+                        for (Conjunct right : toDisjunctiveNormalForm(child, values, children, nodeAtoms))
+                            product.add(left.merge(right));
+                    result = product;
+                }
+                break;
+            case OR:
+                for (int child : children.get(node))
+                    result.addAll(toDisjunctiveNormalForm(child, values, children, nodeAtoms));
+                break;
+            default: // TRUE
+                result.add(new Conjunct());
+        }
+        return result;
+    }
+
+    private void collectAtoms(int node, List<List<Integer>> children, Atom[] nodeAtoms, List<Atom> collected) {
+        if (nodeAtoms[node] != null)
+            collected.add(nodeAtoms[node]);
+        for (int child : children.get(node))
+            collectAtoms(child, children, nodeAtoms, collected);
+    }
+
+    // ================================================== GROUNDING ==================================================
+
+    /** Find every substitution that makes the positive atoms of the conjunct (from the i-th on) true */
+    private void join(Clause clause, Conjunct conjunct, int i, int[] substitution) {
+        if (gaveUp)
+            return;
+        if (i == conjunct.positive.size()) {
+            groundHead(clause, conjunct, 0, substitution);
+            return;
+        }
+        Atom atom = conjunct.positive.get(i);
+        if (isGround(atom, substitution)) {
+            if (spend(1) && (open || atomIds.containsKey(key(atom, substitution))))
+                join(clause, conjunct, i + 1, substitution);
+            return;
+        }
+        if (open) {
+            bindFreely(clause, conjunct, i, 0, substitution);
+            return;
+        }
+        List<int[]> candidates = getCandidates(atom, substitution);
+        int[] bound = new int[atom.arguments.length]; // the variables bound here
+        for (int c = 0, numCandidates = candidates.size(); c < numCandidates && spend(1); c++) {
+            int[] candidate = candidates.get(c);
+            int numBound = 0;
+            boolean matches = true;
+            for (int a = 0; a < candidate.length && matches; a++) {
+                int argument = atom.arguments[a];
+                if (argument >= 0) {
+                    matches = argument == candidate[a];
+                } else if (substitution[~argument] >= 0) {
+                    matches = substitution[~argument] == candidate[a];
+                } else {
+                    substitution[~argument] = candidate[a];
+                    bound[numBound++] = ~argument;
+                }
+            }
+            if (matches)
+                join(clause, conjunct, i + 1, substitution);
+            for (int b = 0; b < numBound; b++)
+                substitution[bound[b]] = -1;
+        }
+    }
+
+    /** Without facts, the unbound variables of the i-th atom (from the a-th argument on) can be anything */
+    private void bindFreely(Clause clause, Conjunct conjunct, int i, int a, int[] substitution) {
+        int[] arguments = conjunct.positive.get(i).arguments;
+        if (a == arguments.length) {
+            join(clause, conjunct, i + 1, substitution);
+        } else if (arguments[a] >= 0 || substitution[~arguments[a]] >= 0) {
+            bindFreely(clause, conjunct, i, a + 1, substitution);
+        } else {
+            for (int constant = 0; constant < domainSize && spend(1); constant++) {
+                substitution[~arguments[a]] = constant;
+                bindFreely(clause, conjunct, i, a + 1, substitution);
+            }
+            substitution[~arguments[a]] = -1;
+        }
+    }
+
+    /** The atoms of the predicate that agree with the atom on its first bound argument (if it has one) */
+    private List<int[]> getCandidates(Atom atom, int[] substitution) {
+        for (int a = 0; a < atom.arguments.length; a++) {
+            int argument = atom.arguments[a];
+            int value = argument >= 0 ? argument : substitution[~argument];
+            if (value >= 0)
+                return atomsByArgument.getOrDefault(indexKey(atom.predicate, a, value), Collections.emptyList());
+        }
+        return atoms.get(atom.predicate);
+    }
+
+    /** Variables that only occur in the head can be anything */
+    private void groundHead(Clause clause, Conjunct conjunct, int a, int[] substitution) {
+        int[] arguments = clause.head.arguments;
+        if (a < arguments.length && (arguments[a] >= 0 || substitution[~arguments[a]] >= 0)) {
+            groundHead(clause, conjunct, a + 1, substitution);
+        } else if (a < arguments.length) {
+            for (int constant = 0; constant < domainSize && !gaveUp; constant++) {
+                substitution[~arguments[a]] = constant;
+                groundHead(clause, conjunct, a + 1, substitution);
+            }
+            substitution[~arguments[a]] = -1;
+        } else {
+            addGroundRule(clause, conjunct, substitution);
+        }
+    }
+
+    private void addGroundRule(Clause clause, Conjunct conjunct, int[] substitution) {
+        if (++numGroundRules > maxGroundRules) {
+            tooBig = gaveUp = true;
+            return;
+        }
+        if (!spend(1))
+            return;
+        int numAtoms = atomIds.size();
+        int head = addAtom(clause.head.predicate, instantiate(clause.head, substitution));
+        if (!open && atomIds.size() > numAtoms)
+            changed = true; // without facts, every atom is already taken to be true
+        for (Atom atom : conjunct.positive)
+            addEdge(head, addAtom(atom.predicate, instantiate(atom, substitution)));
+        for (Atom atom : conjunct.negative) {
+            if (!isGround(atom, substitution))
+                continue;
+            if (open) {
+                addEdge(head, addAtom(atom.predicate, instantiate(atom, substitution)));
+            } else {
+                Integer id = atomIds.get(key(atom, substitution));
+                if (id != null) // an atom that can't be true disappears from the ground program
+                    addEdge(head, id);
+            }
+        }
+    }
+
+    private int addAtom(int predicate, int[] arguments) {
+        long key = predicate + 1;
+        for (int argument : arguments)
+            key = key * (domainSize + 1) + argument + 1;
+        Integer id = atomIds.get(key);
+        if (id != null)
+            return id;
+        atoms.get(predicate).add(arguments);
+        if (!open) {
+            for (int a = 0; a < arguments.length; a++)
+                atomsByArgument.computeIfAbsent(indexKey(predicate, a, arguments[a]), k -> new ArrayList<>())
+                        .add(arguments);
+        }
+        atomIds.put(key, atomIds.size());
+        return atomIds.size() - 1;
+    }
+
+    private long indexKey(int predicate, int position, int constant) {
+        return ((long) predicate * maxArity + position) * domainSize + constant;
+    }
+
+    private void addEdge(int from, int to) {
+        if (numEdges == edges.length)
+            edges = Arrays.copyOf(edges, 2 * edges.length);
+        edges[numEdges++] = (long) from << 32 | to;
+    }
+
+    /** Count the work, giving up (without an answer) when there is too much of it. Returns true if grounding can go
+     * on. */
+    private boolean spend(int amount) {
+        work += amount;
+        if (work > maxWork)
+            gaveUp = true;
+        return !gaveUp;
+    }
+
+    private static boolean isGround(Atom atom, int[] substitution) {
+        for (int argument : atom.arguments)
+            if (argument < 0 && substitution[~argument] < 0)
+                return false;
+        return true;
+    }
+
+    /** The digits of the key are never zero, so atoms with different numbers of arguments have different keys */
+    private long key(Atom atom, int[] substitution) {
+        long key = atom.predicate + 1;
+        for (int argument : atom.arguments)
+            key = key * (domainSize + 1) + (argument >= 0 ? argument : substitution[~argument]) + 1;
+        return key;
+    }
+
+    private static int[] instantiate(Atom atom, int[] substitution) {
+        int[] arguments = new int[atom.arguments.length];
+        for (int a = 0; a < arguments.length; a++)
+            arguments[a] = atom.arguments[a] >= 0 ? atom.arguments[a] : substitution[~atom.arguments[a]];
+        return arguments;
+    }
+
+    // ================================================== CYCLES ==================================================
+
+    /** Tarjan's algorithm (without recursion) on the ground dependency graph. A component is cyclic if it has more
+     * than one atom or an atom that depends on itself. */
+    private Estimate countCyclicComponents() {
+        int numAtoms = atomIds.size();
+        int[] firstEdge = new int[numAtoms + 1]; // the edges of atom u are targets[firstEdge[u]..firstEdge[u + 1])
+        boolean[] dependsOnItself = new boolean[numAtoms];
+        for (int e = 0; e < numEdges; e++)
+            firstEdge[(int) (edges[e] >>> 32) + 1]++;
+        for (int u = 0; u < numAtoms; u++)
+            firstEdge[u + 1] += firstEdge[u];
+        int[] targets = new int[numEdges];
+        int[] next = Arrays.copyOf(firstEdge, numAtoms);
+        for (int e = 0; e < numEdges; e++) {
+            int from = (int) (edges[e] >>> 32);
+            int to = (int) edges[e];
+            targets[next[from]++] = to;
+            if (from == to)
+                dependsOnItself[from] = true;
+        }
+
+        int[] index = new int[numAtoms];
+        Arrays.fill(index, -1);
+        int[] lowLink = new int[numAtoms];
+        boolean[] onStack = new boolean[numAtoms];
+        int[] stack = new int[numAtoms];
+        int stackSize = 0;
+        int[] callStack = new int[numAtoms];
+        int[] nextEdge = new int[numAtoms];
+        int numVisited = 0;
+        int numCyclicComponents = 0;
+        int largestCyclicComponent = 0;
+
+        for (int root = 0; root < numAtoms; root++) {
+            if (index[root] >= 0)
+                continue;
+            int depth = 0;
+            callStack[depth++] = root;
+            index[root] = lowLink[root] = numVisited++;
+            nextEdge[root] = firstEdge[root];
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth > 0) {
+                int u = callStack[depth - 1];
+                if (nextEdge[u] < firstEdge[u + 1]) {
+                    int v = targets[nextEdge[u]++];
+                    if (index[v] < 0) {
+                        index[v] = lowLink[v] = numVisited++;
+                        nextEdge[v] = firstEdge[v];
+                        stack[stackSize++] = v;
+                        onStack[v] = true;
+                        callStack[depth++] = v;
+                    } else if (onStack[v]) {
+                        lowLink[u] = Math.min(lowLink[u], index[v]);
+                    }
+                    continue;
+                }
+                depth--;
+                if (depth > 0)
+                    lowLink[callStack[depth - 1]] = Math.min(lowLink[callStack[depth - 1]], lowLink[u]);
+                if (lowLink[u] == index[u]) {
+                    int size = 0;
+                    int v;
+                    do {
+                        v = stack[--stackSize];
+                        onStack[v] = false;
+                        size++;
+                    } while (v != u);
+                    if (size > 1 || dependsOnItself[u]) {
+                        numCyclicComponents++;
+                        largestCyclicComponent = Math.max(largestCyclicComponent, size);
+                    }
+                }
+            }
+        }
+        return new Estimate(numGroundRules, numAtoms, numCyclicComponents, largestCyclicComponent, true, false);
+    }
+}
@@ -0,0 +1,144 @@
+package model;
+
+import org.chocosolver.solver.constraints.Constraint;
+import org.chocosolver.solver.search.SearchState;
+import org.chocosolver.solver.variables.IntVar;
+import propagators.ParityPropagator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Near-uniform sampling of programs for any config (in the style of UniGen). Random XOR constraints over the decision
+ * variables split the programs into cells of roughly equal size. The number of constraints is adjusted until a cell
+ * has between MIN_CELL_SIZE and MAX_CELL_SIZE programs, and one of them is chosen uniformly at random. Random value
+ * selection on its own favours programs that are alone in their part of the search tree.
+ *
+ * Each variable joins each XOR with probability config.xorDensity. A parity constraint only prunes once all but one of
+ * its variables are fixed, so sparser XORs make bigger models tractable at the cost of less uniform cells. */
+public class HashingSampler {
+
+    // Cells outside these bounds are rejected, since picking from a cell that is much smaller than the rest would
+    // favour its programs
+    private static final int MIN_CELL_SIZE = 4;
+    private static final int MAX_CELL_SIZE = 16;
+    private static final int MAX_ATTEMPTS = 64; // cells per sample
+
+    private Program program;
+    private final Random rng;
+    private final List<Constraint> parityConstraints = new ArrayList<>();
+    private final List<GeneratedProgram> cell = new ArrayList<>(MAX_CELL_SIZE + 1);
+    private int numConstraints; // a good number of XOR constraints, learned from previous samples
+    private Long deadline; // in terms of System.nanoTime(), or null for no time limit
+    private boolean timedOut;
+
+    public HashingSampler(Config config, long seed) {
+        rng = new Random(seed);
+        program = new Program(config, rng.nextLong());
+    }
+
+    /** Every reset of the model forgets its time limit, so each cell gets the time that is left until the deadline */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /** Whether the last call to sample ran out of time */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /** A random program, or null if there are none (or time ran out). Since every cell has new XOR constraints, the
+     * cell sizes can keep jumping over both bounds. After MAX_ATTEMPTS cells, the last one with any programs has to
+     * do. */
+    public GeneratedProgram sample() {
+        numConstraints = Math.max(0, numConstraints - 1);
+        List<GeneratedProgram> lastCell = new ArrayList<>();
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            enumerateCell();
+            if (timedOut)
+                return null;
+            if (cell.size() > MAX_CELL_SIZE) {
+                numConstraints++;
+            } else if (numConstraints == 0) { // there are only a few programs altogether
+                return pick(cell);
+            } else if (cell.size() < MIN_CELL_SIZE) {
+                numConstraints--;
+            } else {
+                return pick(cell);
+            }
+            if (!cell.isEmpty()) {
+                lastCell.clear();
+                lastCell.addAll(cell);
+            }
+        }
+        return pick(lastCell);
+    }
+
+    private GeneratedProgram pick(List<GeneratedProgram> cell) {
+        return cell.isEmpty() ? null : cell.get(rng.nextInt(cell.size()));
+    }
+
+    /** Fill the cell with (at most MAX_CELL_SIZE + 1) programs that satisfy numConstraints new XOR constraints */
+    private void enumerateCell() {
+        cell.clear();
+        program.reset(program.config, rng.nextLong());
+        if (deadline != null) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                timedOut = true;
+                return;
+            }
+            program.model.getSolver().limitTime(remaining);
+        }
+        for (Constraint constraint : parityConstraints)
+            program.model.unpost(constraint);
+        parityConstraints.clear();
+        for (int i = 0; i < numConstraints; i++) {
+            List<IntVar> variables = new ArrayList<>();
+            for (IntVar v : program.decisionVariables)
+                if (rng.nextDouble() < program.config.xorDensity)
+                    variables.add(v);
+            if (variables.isEmpty())
+                continue;
+            Constraint constraint = new Constraint("Parity",
+                    new ParityPropagator(variables.toArray(new IntVar[0]), rng.nextLong(), rng.nextInt(2)));
+            constraint.post();
+            parityConstraints.add(constraint);
+        }
+
+        while (cell.size() <= MAX_CELL_SIZE && program.solve())
+            cell.add(new Solution(program));
+        timedOut = program.model.getSolver().getSearchState() == SearchState.STOPPED;
+    }
+
+    /** What's left of a solution once the model has moved on to the next one */
+    private static class Solution implements GeneratedProgram {
+
+        private final String rules;
+        private final long hash;
+        private final GroundingEstimator estimator; // never estimates anything itself, since it has no facts
+
+        Solution(Program program) {
+            rules = program.toString();
+            hash = program.getHash();
+            estimator = program.getGroundingEstimator();
+        }
+
+        @Override
+        public void write(Appendable out) throws IOException {
+            out.append(rules);
+        }
+
+        @Override
+        public long getHash() {
+            return hash;
+        }
+
+        @Override
+        public GroundingEstimator getGroundingEstimator() {
+            return new GroundingEstimator(estimator);
+        }
+    }
+}
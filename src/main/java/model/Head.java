@@ -5,6 +5,8 @@ import org.chocosolver.solver.constraints.Constraint;
 import org.chocosolver.solver.variables.IntVar;
 import org.chocosolver.util.tools.ArrayUtils;
 
+import java.io.IOException;
+
 class Head {
 
     private final IntVar predicate; // PREDICATES.length means that the clause is disabled
@@ -42,26 +44,8 @@ class Head {
         return ArrayUtils.concat(new IntVar[]{predicate}, arguments);
     }
 
-    @Override
-    public String toString() {
-        int numVariables = program.config.variables.size();
-        StringBuilder s = new StringBuilder();
-        s.append(program.config.predicates.get(predicate.getValue()));
-        if (arity.getValue() == 0)
-            return s.toString();
-
-        s.append("(");
-        for (int i = 0; i < arity.getValue(); i++) {
-            if (i > 0)
-                s.append(", ");
-            int argument = arguments[i].getValue();
-            if (argument < numVariables) {
-                s.append(program.config.variables.get(argument));
-            } else {
-                s.append(program.config.constants.get(argument - numVariables));
-            }
-        }
-        s.append(")");
-        return s.toString();
+    /** For fully-determined heads */
+    void write(Appendable out) throws IOException {
+        program.writeAtom(out, predicate.getValue(), arity.getValue(), arguments);
     }
 }
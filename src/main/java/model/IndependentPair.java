@@ -33,4 +33,11 @@ public class IndependentPair {
                 return i;
         throw new IllegalArgumentException();
     }
+
+    @Override
+    public String toString() {
+        if (isConditional())
+            return predicate1 + "-" + predicate2 + "|" + condition;
+        return predicate1 + "-" + predicate2;
+    }
 }
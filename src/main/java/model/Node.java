@@ -5,6 +5,8 @@ import org.chocosolver.solver.constraints.Constraint;
 import org.chocosolver.solver.variables.IntVar;
 import org.chocosolver.util.tools.ArrayUtils;
 
+import java.io.IOException;
+
 class Node {
 
     private final IntVar predicate; // Tokens first, then predicates
@@ -44,28 +46,12 @@ class Node {
         return arguments;
     }
 
-    @Override
-    public String toString() {
-        int numVariables = program.config.variables.size();
+    /** For fully-determined nodes */
+    void write(Appendable out) throws IOException {
         int value = predicate.getValue();
         if (value < Token.values().length)
-            return Token.values()[value].toString();
-        StringBuilder atom = new StringBuilder(program.config.predicates.get(value - Token.values().length));
-        if (arity.getValue() == 0)
-            return atom.toString();
-
-        atom.append("(");
-        for (int i = 0; i < arity.getValue(); i++) {
-            if (i > 0)
-                atom.append(", ");
-            int index = arguments[i].getValue();
-            if (index < numVariables) {
-                atom.append(program.config.variables.get(index));
-            } else {
-                atom.append(program.config.constants.get(index - numVariables));
-            }
-        }
-        atom.append(")");
-        return atom.toString();
+            out.append(Token.values()[value].toString());
+        else
+            program.writeAtom(out, value - Token.values().length, arity.getValue(), arguments);
     }
 }
@@ -0,0 +1,6 @@
+package model;
+
+/** Where generated programs go: a file each, one file with an index, or JSON lines on standard output */
+public enum OutputFormat {
+    FILES, APPENDED, JSONL;
+}
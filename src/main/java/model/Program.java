@@ -1,43 +1,63 @@
 package model;
 
 import org.chocosolver.solver.Model;
+import org.chocosolver.solver.Solver;
 import org.chocosolver.solver.constraints.Constraint;
-import org.chocosolver.solver.constraints.Propagator;
 import org.chocosolver.solver.constraints.extension.Tuples;
+import org.chocosolver.solver.search.limits.FailCounter;
 import org.chocosolver.solver.search.strategy.Search;
 import org.chocosolver.solver.search.strategy.selectors.values.IntDomainRandom;
+import org.chocosolver.solver.search.strategy.selectors.variables.ActivityBased;
+import org.chocosolver.solver.search.strategy.selectors.variables.DomOverWDeg;
 import org.chocosolver.solver.search.strategy.selectors.variables.FirstFail;
+import org.chocosolver.solver.search.strategy.strategy.AbstractStrategy;
 import org.chocosolver.solver.search.strategy.strategy.IntStrategy;
 import org.chocosolver.solver.search.strategy.strategy.StrategiesSequencer;
 import org.chocosolver.solver.variables.BoolVar;
 import org.chocosolver.solver.variables.IntVar;
-import org.chocosolver.solver.variables.SetVar;
 import org.chocosolver.util.tools.ArrayUtils;
 import propagators.ConditionalIndependencePropagator;
 import propagators.IndependencePropagator;
 import propagators.NegativeCyclePropagator;
+import propagators.PropagationProfile;
+import propagators.VariableIntroductionPropagator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+
+public class Program implements GeneratedProgram {
 
-public class Program {
+    private static final int RESTART_BASE = 10; // the number of failures before the first restart
+    private static final int MAX_NUM_RESTARTS = 100;
 
     public Config config;
     public IntVar[] clauseAssignments; // an array of predicates occurring at the heads of clauses
     public Body[] bodies; // the body of each clause
     public Model model; // a Choco-specific variable
+    public PropagationProfile profile; // null unless config.profilePropagation
 
     int maxArity;
     Tuples aritiesTable; // used in defining constraints
+    IntVar[] decisionVariables; // the heads and bodies of all clauses (everything else is determined by them)
 
     private Head[] clauseHeads; // full heads (predicates, variables, constants)
-    private IntVar[][] introductions; // for eliminating variable symmetries
     private final java.util.Random rng;
 
     public Program(Config config) {
+        this(config, new java.util.Random().nextLong());
+    }
+
+    /** The seed determines the random value selection of the search strategy (as well as the probabilities chosen
+     * for the output) */
+    public Program(Config config, long seed) {
         this.config = config;
         model = new Model();
-        rng = new java.util.Random();
+        rng = new java.util.Random(seed);
         maxArity = Collections.max(config.arities);
-        //model.getSolver().setRestartOnSolutions();
 
         // Set up constraints
         assert(config.maxNumClauses >= config.predicates.size());
@@ -47,16 +67,19 @@ public class Program {
         ForbidCycles forbidCycles = config.getForbidCycles();
         if (forbidCycles != ForbidCycles.NONE)
             new Constraint("NoNegativeCycles",
-                    new NegativeCyclePropagator(clauseAssignments, bodies, forbidCycles)).post();
+                    new NegativeCyclePropagator(clauseAssignments, bodies, forbidCycles,
+                            config.predicates.size())).post();
         setUpVariableOrdering();
 
         if (config.requiredFormula != null) {
             BoolVar[] hasRequiredFormula = new BoolVar[bodies.length];
             for (int i = 0; i < bodies.length; i++)
                 hasRequiredFormula[i] = bodies[i].hasRequiredFormula();
-            BoolVar one = model.boolVar(true);
-            model.max(one, hasRequiredFormula).post();
+            model.or(hasRequiredFormula).post();
         }
+
+        if (config.profilePropagation)
+            profile = new PropagationProfile(model);
     }
 
     // ================================================== CONSTRAINTS ==================================================
@@ -102,9 +125,11 @@ public class Program {
 
         // The order of the clauses doesn't matter (and we don't allow duplicates)
         IntVar[][] decisionVariablesPerClause = new IntVar[config.maxNumClauses][];
+        decisionVariables = new IntVar[0];
         for (int i = 0; i < config.maxNumClauses; i++) {
             decisionVariablesPerClause[i] = ArrayUtils.concat(clauseHeads[i].getDecisionVariables(),
                     bodies[i].getDecisionVariables());
+            decisionVariables = ArrayUtils.concat(decisionVariables, decisionVariablesPerClause[i]);
             if (i > 0) {
                 Constraint clauseIsActive = model.arithm(clauseAssignments[i], "!=", config.predicates.size());
                 Constraint sorted = model.lexLess(decisionVariablesPerClause[i - 1], decisionVariablesPerClause[i]);
@@ -113,135 +138,66 @@ public class Program {
         }
     }
 
+    /** Variables are interchangeable, so the ones that occur in a clause must be the last ones, introduced in order of
+     * first occurrence (see VariableIntroductionPropagator) */
     private void setUpVariableSymmetryElimination() {
-        if (config.variables.size() <= 1)
-            return;
         int numVariables = config.variables.size();
-
-        // Set up termsPerClause to keep track of all variables and constants across each clause
-        int numIndices = (config.maxNumNodes + 1) * maxArity;
-        /* a concatenation of all terms in each clause (both head and body) (dimension 1 - clauses,
-        dimension 2 - positions) */
-        IntVar[][] termsPerClause = new IntVar[config.maxNumClauses][numIndices];
-        for (int i = 0; i < config.maxNumClauses; i++) {
-            System.arraycopy(clauseHeads[i].getArguments(), 0, termsPerClause[i], 0, maxArity);
-            System.arraycopy(bodies[i].getArguments(), 0, termsPerClause[i], maxArity,
-                    config.maxNumNodes * maxArity);
-        }
-
-        // Set up occurrences
-        int maxValue = config.constants.size() + numVariables;
-        int[] weights = new int[numIndices];
-        int[] possibleIndices = new int[numIndices];
-        for (int i = 0; i < numIndices; i++) {
-            possibleIndices[i] = i;
-            weights[i] = i + 1;
-        }
-        // for each clause and variable, a set of positions with that variable
-        SetVar[][] occurrences = model.setVarMatrix("occurrences", config.maxNumClauses, maxValue + 1,
-                new int[0], possibleIndices);
-        for (int i = 0; i < config.maxNumClauses; i++) {
-            model.setsIntsChanneling(occurrences[i], termsPerClause[i]).post();
-            for (int j = 0; j <= maxValue; j++)
-                for (int k = j + 1; k <= maxValue; k++)
-                    model.disjoint(occurrences[i][j], occurrences[i][k]).post();
-        }
-
-        // Eliminate variable symmetry
-        introductions = new IntVar[config.maxNumClauses][];
-        for (int i = 0; i < config.maxNumClauses; i++) {
-            introductions[i] = model.intVarArray("introductions[" + i + "]", numVariables, 0, numIndices);
-            for (int v = 0; v < numVariables; v++) {
-                model.min(occurrences[i][v], weights, 0, introductions[i][v], false).post();
-                SetVar[] occurrencesAtI = new SetVar[1];
-                occurrencesAtI[0] = occurrences[i][v];
-                Constraint noOccurrences = model.nbEmpty(occurrencesAtI, 1);
-                Constraint fixMinOccurrence = model.arithm(introductions[i][v], "=", 0);
-                model.ifThen(noOccurrences, fixMinOccurrence);
-            }
-            model.sort(introductions[i], introductions[i]).post();
-            model.allDifferentExcept0(introductions[i]).post();
-        }
-
-        // A redundant constraint: for each clause, set up a superset of possible introductory values
-        int[] potentialIntroductionsStatic = new int[numIndices + 1];
-        for (int i = 0; i <= numIndices; i++)
-            potentialIntroductionsStatic[i] = i;
-        SetVar[] potentialIntroductions = model.setVarArray(config.maxNumClauses, new int[0],
-                potentialIntroductionsStatic);
-        for (int i = 0; i < introductions.length; i++)
-            for (int j = 0; j < introductions[i].length; j++)
-                model.member(introductions[i][j], potentialIntroductions[i]).post();
-
-        // A redundant constraint: Nodes with tokens can't hold arguments
-        for (int i = 0; i < config.maxNumClauses; i++) {
-            IntVar[] treeValues = bodies[i].getPredicates();
-            for (int j = 0; j < treeValues.length; j++) {
-                int[] forbiddenValuesStatic = new int[maxArity];
-                for (int k = 0; k < maxArity; k++)
-                    forbiddenValuesStatic[k] = 1 + maxArity * (j + 1) + k;
-                SetVar forbiddenValues = model.setVar(forbiddenValuesStatic, forbiddenValuesStatic);
-                Constraint disjoint = model.disjoint(potentialIntroductions[i], forbiddenValues);
-                Constraint nodeNotLeaf = model.arithm(treeValues[j], "<", Token.values().length);
-                model.ifThen(nodeNotLeaf, disjoint);
-            }
-        }
-
-        // Another redundant constraint: if the introduction is not NULL, then it must be in the occurrences
-        // (and vice versa)
+        if (numVariables <= 1)
+            return;
         for (int i = 0; i < config.maxNumClauses; i++) {
-            for (int j = 0; j < numVariables; j++) {
-                Constraint introductionNotNull = model.arithm(introductions[i][j], ">", 0);
-                Constraint itMustBeInOccurrences = model.member(model.intOffsetView(introductions[i][j], -1),
-                        occurrences[i][j]);
-                model.ifOnlyIf(introductionNotNull, itMustBeInOccurrences);
-            }
+            IntVar[] arguments = ArrayUtils.concat(clauseHeads[i].getArguments(), bodies[i].getArguments());
+            new Constraint("variable introductions " + i,
+                    new VariableIntroductionPropagator(arguments, numVariables)).post();
         }
     }
 
     private void setUpIndependenceConstraints() {
-        int numPredicates = config.predicates.size();
-        if (numPredicates == 0)
-            return;
-        IntVar[][] adjacencyMatrix = model.intVarMatrix("adjacencyMatrix", numPredicates, numPredicates,
-                0, 1);
-        IntVar zero = model.intVar(0);
-        for (int i = 0; i < numPredicates; i++) {
-            for (int j = 0; j < numPredicates; j++) {
-                Constraint noEdge = model.arithm(adjacencyMatrix[i][j], "=", 0);
-                Constraint[] clausesAssignedToJHaveNoI = new Constraint[bodies.length];
-                for (int k = 0; k < bodies.length; k++) {
-                    Constraint notAssignedToJ = model.arithm(clauseAssignments[k], "!=", j);
-                    Constraint hasNoI = model.count(i + Token.values().length,
-                            bodies[k].getPredicates(), zero);
-                    clausesAssignedToJHaveNoI[k] = model.or(notAssignedToJ, hasNoI);
-                }
-                // A[i][j] = 0 iff there are no clauses such that clauseAssignments[k] = j
-                // and i is in clause[k].treeValues
-                model.ifOnlyIf(noEdge, model.and(clausesAssignedToJHaveNoI));
-            }
-        }
+        List<IndependentPair> unconditionalPairs = new ArrayList<>();
         for (int i = 0; i < config.independentPairs.size(); i++) {
-            Propagator<IntVar> propagator;
             IndependentPair pair = config.independentPairs.get(i);
             if (pair.isConditional()) {
-                propagator = new ConditionalIndependencePropagator(pair, this);
+                new Constraint("independence " + i, new ConditionalIndependencePropagator(pair, this)).post();
             } else {
-                propagator = new IndependencePropagator(adjacencyMatrix, pair, config.predicates);
+                unconditionalPairs.add(pair);
             }
-            new Constraint("independence " + i, propagator).post();
         }
+        // All unconditional pairs share the same dependency graph
+        if (!unconditionalPairs.isEmpty())
+            new Constraint("independence", new IndependencePropagator(unconditionalPairs, this)).post();
     }
 
     // ================================================== SOLVING ==================================================
 
-    /** Semi-random variable ordering */
+    /** The search strategy and wrapper chosen in the config. Every strategy is seeded from rng. */
     private void setUpVariableOrdering() {
-        int numStrategies = config.maxNumClauses * 4 + 1;
-        int numVariables = config.variables.size();
-        if (numVariables > 1)
-            numStrategies = config.maxNumClauses * 5 + 1;
-        IntStrategy[] strategies = new IntStrategy[numStrategies];
+        AbstractStrategy<?> strategy;
+        switch (config.getSearchStrategy()) {
+            case DOM_WDEG:
+                strategy = new DomOverWDeg(decisionVariables, rng.nextLong(), new IntDomainRandom(rng.nextLong()));
+                break;
+            case ACTIVITY:
+                // Choco's default parameters, apart from the seed
+                strategy = new ActivityBased(model, decisionVariables, 0.999, 0.2, 8, 1, rng.nextLong());
+                // It restarts (also after each solution), so solutions must be excluded to enumerate them only once
+                model.getSolver().setNoGoodRecordingFromSolutions(decisionVariables);
+                break;
+            default:
+                strategy = getSemiRandomStrategy();
+        }
+        switch (config.getSearchWrapper()) {
+            case LAST_CONFLICT:
+                strategy = Search.lastConflict(strategy);
+                break;
+            case CONFLICT_ORDERING:
+                strategy = Search.conflictOrderingSearch(strategy);
+                break;
+        }
+        model.getSolver().setSearch(strategy);
+    }
+
+    /** Semi-random variable ordering */
+    private AbstractStrategy<?> getSemiRandomStrategy() {
+        IntStrategy[] strategies = new IntStrategy[config.maxNumClauses * 4 + 1];
         strategies[0] = Search.intVarSearch(new FirstFail(model), new IntDomainRandom(rng.nextLong()),
                 clauseAssignments);
         int j = 1;
@@ -255,51 +211,166 @@ public class Program {
             strategies[j++] = structuralStrategy;
             strategies[j++] = predicateStrategy;
             strategies[j++] = headGapStrategy;
-            if (numVariables > 1) {
-                IntStrategy introductionStrategy = Search.intVarSearch(new FirstFail(model),
-                        new IntDomainRandom(rng.nextLong()), introductions[i]);
-                strategies[j++] = introductionStrategy;
-            }
             IntStrategy bodyGapStrategy = Search.intVarSearch(new FirstFail(model),
                     new IntDomainRandom(rng.nextLong()), bodies[i].getArguments());
             strategies[j++] = bodyGapStrategy;
         }
-        model.getSolver().setSearch(new StrategiesSequencer(strategies));
+        return new StrategiesSequencer(strategies);
+    }
+
+    /** Restarts and nogood recording as chosen in the config. The solver forgets them when the model is reset, so they
+     * have to be set up again for every run. Activity-based search brings its own restarts (after every failure while
+     * it samples activities, and after every solution) and records its solutions, so the restart policy of the config
+     * would only add a second, competing one. */
+    public void setUpRestarts(double geometricGrowth) {
+        Solver solver = model.getSolver();
+        boolean ownRestarts = config.getSearchStrategy() == SearchStrategy.ACTIVITY;
+        switch (ownRestarts ? RestartPolicy.NONE : config.getRestartPolicy()) {
+            case GEOMETRIC:
+                solver.setGeometricalRestart(RESTART_BASE, geometricGrowth, new FailCounter(model, 1),
+                        MAX_NUM_RESTARTS);
+                break;
+            case LUBY:
+                solver.setLubyRestart(RESTART_BASE, new FailCounter(model, 1), MAX_NUM_RESTARTS);
+                break;
+        }
+        if (config.restartOnSolutions && !ownRestarts) {
+            solver.setRestartOnSolutions();
+            solver.setNoGoodRecordingFromSolutions(decisionVariables);
+        }
+        if (config.nogoodsOnRestart)
+            solver.setNoGoodRecordingFromRestarts();
     }
 
     public boolean solve() {
         return model.getSolver().solve();
     }
 
+    /** Prepare an already-built model for a new run: the solver forgets its search tree, limits, restarts, nogoods,
+     * and monitors (including the ones that activity-based search puts on variables), and the search strategy is
+     * rebuilt with fresh random seeds. The config must have the same shape as the one used to build the model (see
+     * Config.getShape()). */
+    void reset(Config config, long seed) {
+        assert(config.getShape().equals(this.config.getShape()));
+        this.config = config;
+        model.getSolver().hardReset();
+        if (profile != null)
+            profile.restart();
+        rng.setSeed(seed);
+        setUpVariableOrdering();
+    }
+
+    IntVar[] getHeadArguments(int clause) {
+        return clauseHeads[clause].getArguments();
+    }
+
     // ================================================== OUTPUT ==================================================
 
+    /** The values of the decision variables of the (fully-determined) program. Since the symmetries of clause order
+     * and variable names are eliminated, each program of a config shape has exactly one encoding. */
+    public int[] getEncoding() {
+        int[] encoding = new int[decisionVariables.length];
+        for (int i = 0; i < encoding.length; i++)
+            encoding[i] = decisionVariables[i].getValue();
+        return encoding;
+    }
+
+    /** A 64-bit hash of the rules of the (fully-determined) program (see ProgramHash). Probabilities are not part of
+     * it, so the same rules with different probabilities are the same program. */
+    @Override
+    public long getHash() {
+        ProgramHash hash = new ProgramHash(config);
+        try {
+            for (int i = 0; i < config.maxNumClauses; i++) {
+                if (clauseAssignments[i].getValue() == config.predicates.size())
+                    continue;
+                writeRule(hash, i);
+                hash.endRule();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a ProgramHash never throws
+        }
+        return hash.getHash();
+    }
+
+    @Override
+    public GroundingEstimator getGroundingEstimator() {
+        return new GroundingEstimator(this, config.domainSize);
+    }
+
     /** For fully-determined programs */
     @Override
     public String toString() {
         StringBuilder program = new StringBuilder();
-        for (int i = 0; i < config.maxNumClauses; i++)
-            program.append(clauseToString(i, rng));
+        try {
+            write(program);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a StringBuilder never throws
+        }
         return program.toString();
     }
 
+    /** Write the (fully-determined) program as UTF-8 starting at the position of the buffer. Throws a
+     * BufferOverflowException if the program doesn't fit. */
+    public void write(ByteBuffer buffer) {
+        try {
+            write(new ByteBufferAppendable(buffer));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a ByteBufferAppendable never throws
+        }
+    }
+
+    /** Write the (fully-determined) program clause by clause, without building any intermediate strings */
+    @Override
+    public void write(Appendable out) throws IOException {
+        for (int i = 0; i < config.maxNumClauses; i++)
+            writeClause(out, i);
+    }
+
     /** The entire clause, i.e., both body and head */
-    private String clauseToString(int i, java.util.Random rng) {
+    private void writeClause(Appendable out, int i) throws IOException {
         // Is this clause disabled?
         int predicate = clauseAssignments[i].getValue();
         if (predicate == config.predicates.size())
-            return "";
+            return;
 
         // Add a probability to the statement
         int probability = rng.nextInt(config.probabilities.length);
-        String probabilityString = "";
         if (config.probabilities[probability] < 1)
-            probabilityString = config.probabilities[probability] + " :: ";
+            out.append(Double.toString(config.probabilities[probability])).append(" :: ");
+
+        writeRule(out, i);
+        out.append(".\n");
+    }
 
-        String body = bodies[i].toString();
-        String head = clauseHeads[i].toString();
-        if (body.equals("."))
-            return probabilityString + head + ".\n";
-        return probabilityString + head + " :- " + body + "\n";
+    /** The head and body of an enabled clause */
+    private void writeRule(Appendable out, int i) throws IOException {
+        clauseHeads[i].write(out);
+        if (!bodies[i].isEmpty()) {
+            out.append(" :- ");
+            bodies[i].write(out);
+        }
+    }
+
+    /** A predicate with its arguments (used by both heads and bodies) */
+    void writeAtom(Appendable out, int predicate, int arity, IntVar[] arguments) throws IOException {
+        out.append(config.predicates.get(predicate));
+        if (arity == 0)
+            return;
+
+        int numVariables = config.variables.size();
+        out.append('(');
+        for (int i = 0; i < arity; i++) {
+            if (i > 0)
+                out.append(", ");
+            int argument = arguments[i].getValue();
+            if (argument < numVariables) {
+                out.append(config.variables.get(argument));
+            } else {
+                out.append(config.constants.get(argument - numVariables));
+            }
+        }
+        out.append(')');
     }
 
     /** For partially-determined programs */
@@ -0,0 +1,148 @@
+package model;
+
+import java.math.BigInteger;
+import java.util.Collections;
+
+/** Counts the programs that Program would generate for a config without enumerating them. Only configs without
+ * constraints on cycles, independence, or required formulas are supported.
+ *
+ * A body is an ordered tree whose leaves are predicates, whose nodes with one child are negations, and whose nodes with
+ * more children are conjunctions or disjunctions. A clause is a body together with a head and a filling of all
+ * argument positions with constants and variables (in order of introduction). A program is a non-empty set of
+ * distinct clauses for each predicate. Each of these layers is counted with dynamic programming, and the tables are
+ * also used by ProgramSampler. */
+public class ProgramCounter {
+
+    final Config config;
+    final int maxArity;
+    final int maxBodyArity;
+
+    // trees[i][a]: trees with i nodes and a argument positions;
+    // forests[i][a]: non-empty sequences of such trees with i nodes and a argument positions in total
+    final BigInteger[][] trees;
+    final BigInteger[][] forests;
+    final BigInteger[] bodies; // bodies[a]: bodies with a argument positions in total
+    // completions[k][v]: ways to fill k more argument positions when v variables have already been introduced
+    final BigInteger[][] completions;
+    final BigInteger[] clauses; // clauses[h]: possible clauses for a predicate of arity h
+
+    public ProgramCounter(Config config) {
+        if (!isSupported(config))
+            throw new IllegalArgumentException("only unconstrained configs can be counted");
+        this.config = config;
+        maxArity = Collections.max(config.arities);
+        maxBodyArity = maxArity * config.maxNumNodes;
+        trees = new BigInteger[config.maxNumNodes + 1][maxBodyArity + 1];
+        forests = new BigInteger[config.maxNumNodes + 1][maxBodyArity + 1];
+        countTrees();
+        bodies = countBodies();
+        completions = countCompletions(maxBodyArity + maxArity);
+        clauses = countClauses();
+    }
+
+    public static boolean isSupported(Config config) {
+        return config.getForbidCycles() == ForbidCycles.NONE && config.independentPairs.isEmpty() &&
+                config.requiredFormula == null;
+    }
+
+    public BigInteger count() {
+        // programs[m] is the number of ways to choose sets of clauses for the predicates considered so far, using m
+        // clauses in total
+        BigInteger[] programs = new BigInteger[config.maxNumClauses + 1];
+        programs[0] = BigInteger.ONE;
+        for (int m = 1; m <= config.maxNumClauses; m++)
+            programs[m] = BigInteger.ZERO;
+        for (int arity : config.arities)
+            programs = addPredicate(programs, arity);
+
+        BigInteger total = BigInteger.ZERO;
+        for (BigInteger count : programs)
+            total = total.add(count);
+        return total;
+    }
+
+    /** Given the number of ways to choose clauses for some predicates (indexed by the total number of clauses), count
+     * the ways after adding another predicate of the given arity (which must have at least one clause) */
+    BigInteger[] addPredicate(BigInteger[] programs, int arity) {
+        BigInteger[] choices = binomials(clauses[arity], config.maxNumClauses);
+        BigInteger[] next = new BigInteger[programs.length];
+        for (int m = 0; m < programs.length; m++) {
+            next[m] = BigInteger.ZERO;
+            for (int h = 1; h <= m; h++)
+                next[m] = next[m].add(programs[m - h].multiply(choices[h]));
+        }
+        return next;
+    }
+
+    private void countTrees() {
+        for (int a = 0; a <= maxBodyArity; a++) {
+            trees[1][a] = BigInteger.valueOf(Collections.frequency(config.arities, a));
+            forests[1][a] = trees[1][a];
+        }
+        for (int i = 2; i <= config.maxNumNodes; i++) {
+            for (int a = 0; a <= maxBodyArity; a++) {
+                // A negation of a tree with one node fewer, or a conjunction/disjunction of at least two trees
+                BigInteger atLeastTwo = forests[i - 1][a].subtract(trees[i - 1][a]);
+                trees[i][a] = trees[i - 1][a].add(atLeastTwo.shiftLeft(1));
+            }
+            for (int a = 0; a <= maxBodyArity; a++) {
+                forests[i][a] = trees[i][a];
+                for (int first = 1; first < i; first++)
+                    for (int firstArity = 0; firstArity <= a; firstArity++)
+                        forests[i][a] = forests[i][a].add(trees[first][firstArity]
+                                .multiply(forests[i - first][a - firstArity]));
+            }
+        }
+    }
+
+    private BigInteger[] countBodies() {
+        BigInteger[] bodies = new BigInteger[maxBodyArity + 1];
+        for (int a = 0; a <= maxBodyArity; a++) {
+            bodies[a] = BigInteger.ZERO;
+            for (int i = 1; i <= config.maxNumNodes; i++)
+                bodies[a] = bodies[a].add(trees[i][a]);
+        }
+        if (config.allowEmptyBodies)
+            bodies[0] = bodies[0].add(BigInteger.ONE);
+        return bodies;
+    }
+
+    /** Each position holds a constant, a variable that was already introduced, or (if there are any left) the next
+     * variable. Fixing the order of introduction is what variable symmetry elimination does in the model. */
+    private BigInteger[][] countCompletions(int maxPositions) {
+        int numConstants = config.constants.size();
+        int numVariables = config.variables.size();
+        BigInteger[][] completions = new BigInteger[maxPositions + 1][numVariables + 1];
+        for (int v = 0; v <= numVariables; v++)
+            completions[0][v] = BigInteger.ONE;
+        for (int k = 1; k <= maxPositions; k++) {
+            for (int v = 0; v <= numVariables; v++) {
+                completions[k][v] = completions[k - 1][v].multiply(BigInteger.valueOf(numConstants + v));
+                if (v < numVariables)
+                    completions[k][v] = completions[k][v].add(completions[k - 1][v + 1]);
+            }
+        }
+        return completions;
+    }
+
+    private BigInteger[] countClauses() {
+        BigInteger[] clauses = new BigInteger[maxArity + 1];
+        for (int headArity = 0; headArity <= maxArity; headArity++) {
+            clauses[headArity] = BigInteger.ZERO;
+            for (int bodyArity = 0; bodyArity <= maxBodyArity; bodyArity++)
+                clauses[headArity] = clauses[headArity].add(bodies[bodyArity]
+                        .multiply(completions[bodyArity + headArity][0]));
+        }
+        return clauses;
+    }
+
+    /** n choose k for all k up to maxK */
+    static BigInteger[] binomials(BigInteger n, int maxK) {
+        BigInteger[] binomials = new BigInteger[maxK + 1];
+        binomials[0] = BigInteger.ONE;
+        for (int k = 1; k <= maxK; k++)
+            binomials[k] = binomials[k - 1].multiply(n.subtract(BigInteger.valueOf(k - 1)))
+                    .divide(BigInteger.valueOf(k));
+        return binomials;
+    }
+}
@@ -0,0 +1,66 @@
+package model;
+
+/** Computes the hash of a program from the text of its rules (without probabilities), so that Program and
+ * ProgramSampler agree on it. Each rule is hashed on its own and the rule hashes are added up, since the two order
+ * clauses differently. The rules of a program are distinct, so the sum only loses the order. Every rule hash starts
+ * with what gives the encoding its meaning (the predicates, arities, variables, constants, and size limits), but not
+ * with the constraints or solver settings, so the same program from differently constrained configs is recognised. */
+class ProgramHash implements Appendable {
+
+    private final long seed;
+    private long rule; // the hash of the rule being appended
+    private long sum;
+
+    ProgramHash(Config config) {
+        long hash = 0;
+        String vocabulary = String.join(";", Integer.toString(config.maxNumNodes),
+                Integer.toString(config.maxNumClauses), config.predicates.toString(), config.arities.toString(),
+                config.variables.toString(), config.constants.toString());
+        for (int i = 0; i < vocabulary.length(); i++)
+            hash = mix(hash, vocabulary.charAt(i));
+        seed = hash;
+        rule = seed;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq) {
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) {
+        for (int i = start; i < end; i++)
+            append(csq.charAt(i));
+        return this;
+    }
+
+    @Override
+    public Appendable append(char c) {
+        rule = mix(rule, c);
+        return this;
+    }
+
+    /** Everything appended since the last call is one rule */
+    void endRule() {
+        sum += finish(rule);
+        rule = seed;
+    }
+
+    long getHash() {
+        return finish(sum);
+    }
+
+    private static long mix(long hash, int value) {
+        hash = (hash ^ value) * 0x9e3779b97f4a7c15L;
+        return hash ^ (hash >>> 32);
+    }
+
+    /** The finalizer of MurmurHash3 */
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,379 @@
+package model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/** Generates programs for unconstrained configs (see ProgramCounter.isSupported()) without constraint solving. Each
+ * program is chosen uniformly at random among all the programs that Program can generate for the config, by
+ * unranking a random number with the tables of ProgramCounter, and written in the same format as Program. Unlike
+ * repeated calls to Program.solve(), repeated samples can be the same program. */
+public class ProgramSampler {
+
+    private static final Token[] TOKENS = Token.values();
+
+    private final Config config;
+    private final ProgramCounter counter;
+    private final Random rng;
+    private final int[][] predicatesWithArity; // the leaves of trees, indexed by arity
+    private final BigInteger[][] choices; // choices[j][h]: ways to choose h clauses for predicate j
+    // remainingPrograms[j][m]: ways to choose clauses for predicates j, j + 1, ... using m clauses in total
+    private final BigInteger[][] remainingPrograms;
+
+    // The clause being generated. Nodes are numbered in the order they are created.
+    private int numNodes;
+    private final int[] values; // per node, a token or a predicate (as in Node)
+    private final int[] firstChild; // per node, -1 if it has no children
+    private final int[] nextSibling; // per node, -1 if it is the last child
+    private final int[] firstArgument; // per node, its first position in arguments
+    private final int[] queue; // for numbering leaves in the same order as the model does
+    private final int[] arguments; // the head arguments, then the arguments of each leaf (see firstArgument)
+    private int numIntroducedVariables;
+    private boolean emptyBody;
+
+    public ProgramSampler(Config config, long seed) {
+        this.config = config;
+        counter = new ProgramCounter(config);
+        rng = new Random(seed);
+
+        predicatesWithArity = new int[counter.maxArity + 1][];
+        for (int a = 0; a <= counter.maxArity; a++) {
+            predicatesWithArity[a] = new int[counter.trees[1][a].intValue()];
+            int i = 0;
+            for (int p = 0; p < config.arities.size(); p++)
+                if (config.arities.get(p) == a)
+                    predicatesWithArity[a][i++] = p;
+        }
+
+        int numPredicates = config.predicates.size();
+        choices = new BigInteger[numPredicates][];
+        for (int j = 0; j < numPredicates; j++)
+            choices[j] = ProgramCounter.binomials(counter.clauses[config.arities.get(j)], config.maxNumClauses);
+        remainingPrograms = new BigInteger[numPredicates + 1][];
+        remainingPrograms[numPredicates] = new BigInteger[config.maxNumClauses + 1];
+        remainingPrograms[numPredicates][0] = BigInteger.ONE;
+        for (int m = 1; m <= config.maxNumClauses; m++)
+            remainingPrograms[numPredicates][m] = BigInteger.ZERO;
+        for (int j = numPredicates - 1; j >= 0; j--)
+            remainingPrograms[j] = counter.addPredicate(remainingPrograms[j + 1], config.arities.get(j));
+
+        values = new int[config.maxNumNodes];
+        firstChild = new int[config.maxNumNodes];
+        nextSibling = new int[config.maxNumNodes];
+        firstArgument = new int[config.maxNumNodes];
+        queue = new int[config.maxNumNodes];
+        arguments = new int[counter.maxBodyArity + counter.maxArity];
+    }
+
+    public GeneratedProgram sample() {
+        List<Integer> predicates = new ArrayList<>();
+        List<BigInteger> ranks = new ArrayList<>();
+        // The number of clauses
+        BigInteger[] programs = remainingPrograms[0];
+        BigInteger total = BigInteger.ZERO;
+        for (BigInteger count : programs)
+            total = total.add(count);
+        BigInteger rank = randomBelow(total);
+        int numClauses = 0;
+        while (rank.compareTo(programs[numClauses]) >= 0)
+            rank = rank.subtract(programs[numClauses++]);
+
+        // How many of them each predicate gets, and which ones
+        for (int j = 0; j < config.predicates.size(); j++) {
+            int h = 1;
+            BigInteger weight = choices[j][h].multiply(remainingPrograms[j + 1][numClauses - h]);
+            while (rank.compareTo(weight) >= 0) {
+                rank = rank.subtract(weight);
+                h++;
+                weight = choices[j][h].multiply(remainingPrograms[j + 1][numClauses - h]);
+            }
+            rank = rank.mod(remainingPrograms[j + 1][numClauses - h]);
+            numClauses -= h;
+            for (BigInteger clause : chooseDistinct(counter.clauses[config.arities.get(j)], h)) {
+                predicates.add(j);
+                ranks.add(clause);
+            }
+        }
+        return new Sample(predicates.stream().mapToInt(Integer::intValue).toArray(),
+                ranks.toArray(new BigInteger[0]));
+    }
+
+    /** A sampled program, kept as the rank of each clause among the clauses of its predicate and unranked again
+     * whenever it's needed */
+    private class Sample implements GeneratedProgram {
+
+        private final int[] predicates;
+        private final BigInteger[] ranks;
+
+        Sample(int[] predicates, BigInteger[] ranks) {
+            this.predicates = predicates;
+            this.ranks = ranks;
+        }
+
+        @Override
+        public void write(Appendable out) throws IOException {
+            for (int i = 0; i < predicates.length; i++) {
+                unrankClause(predicates[i], ranks[i]);
+                writeClause(out, predicates[i]);
+            }
+        }
+
+        /** The same hash as Program gives the same rules */
+        @Override
+        public long getHash() {
+            ProgramHash hash = new ProgramHash(config);
+            try {
+                for (int i = 0; i < predicates.length; i++) {
+                    unrankClause(predicates[i], ranks[i]);
+                    writeRule(hash, predicates[i]);
+                    hash.endRule();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // a ProgramHash never throws
+            }
+            return hash.getHash();
+        }
+
+        @Override
+        public GroundingEstimator getGroundingEstimator() {
+            GroundingEstimator estimator = new GroundingEstimator(config, counter.maxArity, config.domainSize);
+            for (int i = 0; i < predicates.length; i++) {
+                unrankClause(predicates[i], ranks[i]);
+                addClause(estimator, predicates[i]);
+            }
+            return estimator;
+        }
+    }
+
+    /** Floyd's algorithm for a uniformly random subset of size k of {0, 1, ..., n - 1} */
+    private SortedSet<BigInteger> chooseDistinct(BigInteger n, int k) {
+        SortedSet<BigInteger> chosen = new TreeSet<>();
+        for (BigInteger i = n.subtract(BigInteger.valueOf(k)); i.compareTo(n) < 0; i = i.add(BigInteger.ONE)) {
+            BigInteger candidate = randomBelow(i.add(BigInteger.ONE));
+            chosen.add(chosen.contains(candidate) ? i : candidate);
+        }
+        return chosen;
+    }
+
+    private BigInteger randomBelow(BigInteger n) {
+        // Random.nextInt() uses the better (higher) bits of the generator
+        if (n.bitLength() < Integer.SIZE)
+            return BigInteger.valueOf(rng.nextInt(n.intValue()));
+        BigInteger r;
+        do {
+            r = new BigInteger(n.bitLength(), rng);
+        } while (r.compareTo(n) >= 0);
+        return r;
+    }
+
+    // ================================================== UNRANKING ==================================================
+
+    /** Build the clause with the given rank among all clauses of the predicate, in the same order as ProgramCounter
+     * counts them */
+    private void unrankClause(int predicate, BigInteger rank) {
+        int headArity = config.arities.get(predicate);
+        int bodyArity = 0;
+        BigInteger numFillings = counter.completions[headArity][0];
+        BigInteger block = counter.bodies[0].multiply(numFillings);
+        while (rank.compareTo(block) >= 0) {
+            rank = rank.subtract(block);
+            bodyArity++;
+            numFillings = counter.completions[bodyArity + headArity][0];
+            block = counter.bodies[bodyArity].multiply(numFillings);
+        }
+        BigInteger[] bodyAndFilling = rank.divideAndRemainder(numFillings);
+
+        numNodes = 0;
+        BigInteger bodyRank = bodyAndFilling[0];
+        emptyBody = config.allowEmptyBodies && bodyArity == 0 && bodyRank.signum() == 0;
+        if (!emptyBody) {
+            if (config.allowEmptyBodies && bodyArity == 0)
+                bodyRank = bodyRank.subtract(BigInteger.ONE);
+            int n = 1;
+            while (bodyRank.compareTo(counter.trees[n][bodyArity]) >= 0)
+                bodyRank = bodyRank.subtract(counter.trees[n++][bodyArity]);
+            unrankTree(n, bodyArity, bodyRank);
+            assignArgumentPositions(headArity);
+        }
+        unrankFilling(headArity + bodyArity, bodyAndFilling[1]);
+    }
+
+    /** Create the tree with i nodes and a argument positions with the given rank, returning its root */
+    private int unrankTree(int i, int a, BigInteger rank) {
+        int node = numNodes++;
+        firstChild[node] = -1;
+        nextSibling[node] = -1;
+        if (i == 1) {
+            values[node] = TOKENS.length + predicatesWithArity[a][rank.intValue()];
+            return node;
+        }
+
+        BigInteger negations = counter.trees[i - 1][a];
+        if (rank.compareTo(negations) < 0) {
+            values[node] = Token.NOT.ordinal();
+            firstChild[node] = unrankTree(i - 1, a, rank);
+            return node;
+        }
+        rank = rank.subtract(negations);
+        BigInteger connectives = counter.forests[i - 1][a].subtract(negations); // i.e., forests of at least two trees
+        values[node] = rank.compareTo(connectives) < 0 ? Token.AND.ordinal() : Token.OR.ordinal();
+        firstChild[node] = unrankForest(i - 1, a, rank.mod(connectives).add(negations));
+        return node;
+    }
+
+    /** Create the sequence of trees with i nodes and a argument positions in total with the given rank, returning the
+     * root of the first tree */
+    private int unrankForest(int i, int a, BigInteger rank) {
+        if (rank.compareTo(counter.trees[i][a]) < 0)
+            return unrankTree(i, a, rank);
+        rank = rank.subtract(counter.trees[i][a]);
+        for (int first = 1; first < i; first++) {
+            for (int firstArity = 0; firstArity <= a; firstArity++) {
+                BigInteger rest = counter.forests[i - first][a - firstArity];
+                BigInteger block = counter.trees[first][firstArity].multiply(rest);
+                if (rank.compareTo(block) >= 0) {
+                    rank = rank.subtract(block);
+                    continue;
+                }
+                BigInteger[] firstAndRest = rank.divideAndRemainder(rest);
+                int root = unrankTree(first, firstArity, firstAndRest[0]);
+                nextSibling[root] = unrankForest(i - first, a - firstArity, firstAndRest[1]);
+                return root;
+            }
+        }
+        throw new IllegalStateException("rank out of range");
+    }
+
+    /** The model orders argument positions by node, and its nodes are in breadth-first order */
+    private void assignArgumentPositions(int headArity) {
+        int position = headArity;
+        int first = 0;
+        int last = 0;
+        queue[last++] = 0;
+        while (first < last) {
+            int node = queue[first++];
+            firstArgument[node] = position;
+            if (values[node] >= TOKENS.length)
+                position += config.arities.get(values[node] - TOKENS.length);
+            for (int child = firstChild[node]; child >= 0; child = nextSibling[child])
+                queue[last++] = child;
+        }
+    }
+
+    /** Fill the arguments array. Constants are stored as they are, variables as -1 - (the order of introduction). */
+    private void unrankFilling(int numPositions, BigInteger rank) {
+        int numConstants = config.constants.size();
+        numIntroducedVariables = 0;
+        for (int i = 0; i < numPositions; i++) {
+            BigInteger perOption = counter.completions[numPositions - i - 1][numIntroducedVariables];
+            BigInteger[] optionAndRest = rank.divideAndRemainder(perOption);
+            int option = optionAndRest[0].intValue();
+            if (option < numConstants) {
+                arguments[i] = option;
+                rank = optionAndRest[1];
+            } else if (option < numConstants + numIntroducedVariables) {
+                arguments[i] = -1 - (option - numConstants);
+                rank = optionAndRest[1];
+            } else {
+                // The next variable: all the remaining ranks belong to it
+                arguments[i] = -1 - numIntroducedVariables;
+                rank = rank.subtract(perOption.multiply(BigInteger.valueOf(numConstants + numIntroducedVariables)));
+                numIntroducedVariables++;
+            }
+        }
+    }
+
+    /** Give the clause that was unranked last to the estimator. Variables are already stored as the estimator wants
+     * them, i.e., as ~(the order of introduction). */
+    private void addClause(GroundingEstimator estimator, int predicate) {
+        int[] headArguments = Arrays.copyOf(arguments, config.arities.get(predicate));
+        if (emptyBody) {
+            estimator.addClause(predicate, headArguments, new int[]{Token.TRUE.ordinal()}, new int[1], new int[1][]);
+            return;
+        }
+        int[] parents = new int[numNodes]; // the root is its own parent
+        int[][] nodeArguments = new int[numNodes][];
+        for (int node = 0; node < numNodes; node++) {
+            for (int child = firstChild[node]; child >= 0; child = nextSibling[child])
+                parents[child] = node;
+            if (values[node] >= TOKENS.length) {
+                int arity = config.arities.get(values[node] - TOKENS.length);
+                nodeArguments[node] = Arrays.copyOfRange(arguments, firstArgument[node], firstArgument[node] + arity);
+            }
+        }
+        estimator.addClause(predicate, headArguments, Arrays.copyOf(values, numNodes), parents, nodeArguments);
+    }
+
+    // ================================================== OUTPUT ==================================================
+
+    /** Write the clause that was unranked last */
+    private void writeClause(Appendable out, int predicate) throws IOException {
+        // Add a probability to the statement
+        int probability = rng.nextInt(config.probabilities.length);
+        if (config.probabilities[probability] < 1)
+            out.append(Double.toString(config.probabilities[probability])).append(" :: ");
+
+        writeRule(out, predicate);
+        out.append(".\n");
+    }
+
+    /** The head and body of the clause that was unranked last, as Program writes them */
+    private void writeRule(Appendable out, int predicate) throws IOException {
+        writeAtom(out, predicate, 0);
+        if (!emptyBody) {
+            out.append(" :- ");
+            writeTree(out, 0);
+        }
+    }
+
+    private void writeTree(Appendable out, int node) throws IOException {
+        if (values[node] >= TOKENS.length) {
+            writeAtom(out, values[node] - TOKENS.length, firstArgument[node]);
+            return;
+        }
+        Token token = TOKENS[values[node]];
+        if (token == Token.NOT) {
+            out.append(token.toString()).append('(');
+            writeTree(out, firstChild[node]);
+            out.append(')');
+            return;
+        }
+
+        for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+            if (child != firstChild[node])
+                out.append(token.toString()).append(' ');
+            out.append('(');
+            writeTree(out, child);
+            out.append(')');
+        }
+    }
+
+    /** Like Program.writeAtom(). The variables that are used are the last ones, in order of introduction (as after
+     * variable symmetry elimination in the model). */
+    private void writeAtom(Appendable out, int predicate, int firstArgument) throws IOException {
+        out.append(config.predicates.get(predicate));
+        int arity = config.arities.get(predicate);
+        if (arity == 0)
+            return;
+
+        int firstVariable = config.variables.size() - numIntroducedVariables;
+        out.append('(');
+        for (int i = 0; i < arity; i++) {
+            if (i > 0)
+                out.append(", ");
+            int argument = arguments[firstArgument + i];
+            if (argument < 0) {
+                out.append(config.variables.get(firstVariable - 1 - argument));
+            } else {
+                out.append(config.constants.get(argument));
+            }
+        }
+        out.append(')');
+    }
+}
@@ -0,0 +1,7 @@
+package model;
+
+/** When the solver abandons its search tree and starts again from the root: never, after a geometrically growing
+ * number of failures, or after a number of failures that follows the Luby sequence */
+public enum RestartPolicy {
+    NONE, GEOMETRIC, LUBY;
+}
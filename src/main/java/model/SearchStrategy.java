@@ -0,0 +1,8 @@
+package model;
+
+/** How the solver picks variables and values: one semi-random block of variables after another (clause assignments,
+ * then the structure, predicates, and arguments of each clause), dom/wdeg, or activity-based search. All of them
+ * choose values at random. */
+public enum SearchStrategy {
+    SEMI_RANDOM, DOM_WDEG, ACTIVITY;
+}
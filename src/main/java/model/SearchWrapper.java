@@ -0,0 +1,6 @@
+package model;
+
+/** An optional layer on top of the search strategy that goes back to the variables involved in recent conflicts */
+public enum SearchWrapper {
+    NONE, LAST_CONFLICT, CONFLICT_ORDERING;
+}
@@ -0,0 +1,83 @@
+package modes;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import model.Config;
+import model.GeneratorSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** Normal mode for many configs in one process, so that JVM startup, class loading, and JIT compilation are paid for
+ * only once. The configs are either YAML documents (separated by ---) or JSON objects (one per line, in a .json or
+ * .jsonl file), each with its own prefix, timeout, seed, etc. When a config is done, a JSON status line is printed
+ * with its prefix, the number of programs, and one of the statuses: done, timeout (the search was stopped before
+ * enough programs were found), exhausted (there are no more programs), or error. */
+public class BatchMode {
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+    public static void run(String filename, int numThreads) throws IOException, InterruptedException {
+        List<Config> configs = readConfigs(filename);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CompletionService<Map<String, Object>> statuses = new ExecutorCompletionService<>(executor);
+        ThreadLocal<GeneratorSession> sessions = ThreadLocal.withInitial(GeneratorSession::new);
+        for (Config config : configs)
+            statuses.submit(() -> generate(config, () -> NormalMode.generate(config, sessions.get())));
+        executor.shutdown();
+
+        int numFailed = 0;
+        for (int i = 0; i < configs.size(); i++) {
+            Map<String, Object> status;
+            try {
+                status = statuses.take().get();
+            } catch (ExecutionException e) {
+                executor.shutdownNow();
+                throw new RuntimeException(e.getCause());
+            }
+            if (status.get("status").equals("error"))
+                numFailed++;
+            System.out.println(JSON_MAPPER.writeValueAsString(status));
+        }
+        if (numFailed > 0)
+            System.err.println(numFailed + " of " + configs.size() + " configs failed");
+    }
+
+    /** Run the generation and describe how it went. One config shouldn't be able to stop the others, so its errors
+     * become its status. */
+    static Map<String, Object> generate(Config config, Callable<NormalMode.Summary> generation) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("prefix", config.prefix);
+        long start = System.nanoTime();
+        try {
+            NormalMode.Summary summary = generation.call();
+            status.put("status", summary.numPrograms >= config.numSolutions ? "done" :
+                    summary.timedOut ? "timeout" : "exhausted");
+            status.put("programs", summary.numPrograms);
+        } catch (Exception e) {
+            status.put("status", "error");
+            status.put("programs", 0);
+            status.put("message", e.toString());
+        }
+        status.put("seconds", (System.nanoTime() - start) / 1e9);
+        return status;
+    }
+
+    static List<Config> readConfigs(String filename) throws IOException {
+        boolean json = filename.endsWith(".json") || filename.endsWith(".jsonl");
+        ObjectMapper mapper = json ? JSON_MAPPER : new ObjectMapper(new YAMLFactory());
+        try (MappingIterator<Config> configs = mapper.readerFor(Config.class).readValues(new File(filename))) {
+            return configs.readAll();
+        }
+    }
+}
@@ -2,73 +2,165 @@ package modes;
 
 import model.Config;
 import model.Program;
+import model.ProgramCounter;
+import org.chocosolver.solver.Solver;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.util.stream.Collectors.toList;
 
+/** Checks the program counts in the CSV file. The count mode computes each count with ProgramCounter, the verify mode
+ * checks the model itself by enumerating all of its solutions (in parallel, one row at a time per worker) and
+ * comparing their number with ProgramCounter. */
 public class CountingMode {
 
+    private static final String TIMEOUT = "60s"; // per row
+    private static final String REPORT_HEADER = "arities;predicates with arity;variables;constants;nodes;clauses;" +
+            "predicted;enumerated;seconds;timed out";
+
     public static void run() throws IOException {
         BufferedReader reader = new BufferedReader(new FileReader(Config.PROGRAM_COUNTS_FILENAME));
         String row;
         while ((row = reader.readLine()) != null) {
-            // Read each line of the CSV file into fields
-            String[] data = row.split(";");
-            List<Integer> aritiesList = Arrays.stream(data[0].substring(1, data[0].length() - 1).split(", "))
-                    .map(Integer::parseInt).collect(toList());
-            List<Integer> predicatesWithArity = Arrays.stream(data[1].substring(1, data[1].length() - 1)
-                    .split(", ")).map(Integer::parseInt).collect(toList());
-
-            int numPredicates = predicatesWithArity.stream().reduce(0, Integer::sum);
-            List<String> predicates = new ArrayList<>();
-            for (int i = 0; i < numPredicates; i++)
-                predicates.add("p" + (i + 1));
-
-            List<Integer> arities = new ArrayList<>();
-            for (int i = 0; i < aritiesList.size(); i++)
-                for (int j = 0; j < predicatesWithArity.get(i); j++)
-                    arities.add(aritiesList.get(i));
-
-            int numVariables = Integer.parseInt(data[2]);
-            List<String> variables = new ArrayList<>();
-            for (int i = 0; i < numVariables; i++)
-                variables.add("X" + (i + 1));
-
-            int numConstants = Integer.parseInt(data[3]);
-            List<String> constants = new ArrayList<>();
-            for (int i = 0; i < numConstants; i++)
-                constants.add("a" + (i + 1));
-            int predictedProgramCount = Integer.parseInt(data[6]);
-
-            Config config = new Config(Integer.parseInt(data[4]), Integer.parseInt(data[5]), "NONE", "60s",
-                    predicates, arities, variables, constants, new LinkedList<>(), null);
-            config.probabilities = new double[]{1};
-            Program p = new Program(config);
-
-            // Count the number of solutions
-            int i = 0;
-            System.out.print(".");
-            if (config.printProgramsWhileCounting)
-                System.out.println("========================================");
-            while (p.solve()) {
-                i++;
-                if (config.printProgramsWhileCounting) {
-                    System.out.println("=====Program=====");
-                    System.out.println(p.toString());
-                }
-            }
-            if (i != predictedProgramCount) {
+            BigInteger predictedProgramCount = new BigInteger(row.split(";")[6]);
+            BigInteger count = new ProgramCounter(parseRow(row)).count();
+            if (!count.equals(predictedProgramCount)) {
                 System.out.println("Parameters: " + row);
-                System.out.println("Number of programs: " + i);
+                System.out.println("Number of programs: " + count);
             }
         }
         reader.close();
     }
+
+    /** Enumerate the programs of every row on a pool of numThreads workers, giving each row the time budget from its
+     * config, and write a report with one line per row (in the order of the CSV file) */
+    public static void verify(int numThreads) throws IOException, InterruptedException {
+        List<String> rows = Files.readAllLines(Paths.get(Config.PROGRAM_COUNTS_FILENAME));
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<Verification>> verifications = new ArrayList<>();
+        for (String row : rows)
+            verifications.add(executor.submit(() -> verifyRow(row)));
+        executor.shutdown();
+
+        int numMismatches = 0;
+        int numTimeouts = 0;
+        BufferedWriter writer = new BufferedWriter(new FileWriter(Config.VERIFICATION_REPORT_FILENAME));
+        writer.write(REPORT_HEADER);
+        writer.newLine();
+        for (Future<Verification> future : verifications) {
+            Verification verification;
+            try {
+                verification = future.get();
+            } catch (ExecutionException e) {
+                executor.shutdownNow();
+                throw new RuntimeException(e.getCause());
+            }
+            if (verification.timedOut)
+                numTimeouts++;
+            else if (!verification.isCorrect())
+                numMismatches++;
+            writer.write(verification.toString());
+            writer.newLine();
+            writer.flush();
+        }
+        writer.close();
+        System.out.println("Verified " + rows.size() + " rows: " + numMismatches + " mismatches, " + numTimeouts +
+                " timeouts");
+    }
+
+    private static Verification verifyRow(String row) {
+        Config config = parseRow(row);
+        BigInteger predictedProgramCount = new ProgramCounter(config).count();
+        Program p = new Program(config);
+        Solver solver = p.model.getSolver();
+        if (config.timeout != null)
+            solver.limitTime(config.timeout);
+
+        // Count the number of solutions
+        long i = 0;
+        while (p.solve()) {
+            i++;
+            if (config.printProgramsWhileCounting)
+                System.out.println("=====Program=====\n" + p.toString());
+        }
+        return new Verification(row, predictedProgramCount, i, solver.getTimeCount(), solver.isStopCriterionMet());
+    }
+
+    /** Read a line of the CSV file into a config. The counts include facts, so empty bodies are allowed. */
+    private static Config parseRow(String row) {
+        String[] data = row.split(";");
+        List<Integer> aritiesList = Arrays.stream(data[0].substring(1, data[0].length() - 1).split(", "))
+                .map(Integer::parseInt).collect(toList());
+        List<Integer> predicatesWithArity = Arrays.stream(data[1].substring(1, data[1].length() - 1)
+                .split(", ")).map(Integer::parseInt).collect(toList());
+
+        int numPredicates = predicatesWithArity.stream().reduce(0, Integer::sum);
+        List<String> predicates = new ArrayList<>();
+        for (int i = 0; i < numPredicates; i++)
+            predicates.add("p" + (i + 1));
+
+        List<Integer> arities = new ArrayList<>();
+        for (int i = 0; i < aritiesList.size(); i++)
+            for (int j = 0; j < predicatesWithArity.get(i); j++)
+                arities.add(aritiesList.get(i));
+
+        int numVariables = Integer.parseInt(data[2]);
+        List<String> variables = new ArrayList<>();
+        for (int i = 0; i < numVariables; i++)
+            variables.add("X" + (i + 1));
+
+        int numConstants = Integer.parseInt(data[3]);
+        List<String> constants = new ArrayList<>();
+        for (int i = 0; i < numConstants; i++)
+            constants.add("a" + (i + 1));
+
+        Config config = new Config(Integer.parseInt(data[4]), Integer.parseInt(data[5]), "NONE", TIMEOUT,
+                predicates, arities, variables, constants, new LinkedList<>(), null);
+        config.probabilities = new double[]{1};
+        config.allowEmptyBodies = true;
+        return config;
+    }
+
+    private static class Verification {
+
+        private final String row;
+        private final BigInteger predictedProgramCount;
+        private final long programCount;
+        private final float time; // in seconds
+        private final boolean timedOut; // if so, programCount is only a lower bound
+
+        Verification(String row, BigInteger predictedProgramCount, long programCount, float time, boolean timedOut) {
+            this.row = row;
+            this.predictedProgramCount = predictedProgramCount;
+            this.programCount = programCount;
+            this.time = time;
+            this.timedOut = timedOut;
+        }
+
+        boolean isCorrect() {
+            return predictedProgramCount.equals(BigInteger.valueOf(programCount));
+        }
+
+        @Override
+        public String toString() {
+            String parameters = row.substring(0, row.lastIndexOf(';'));
+            return String.join(";", parameters, predictedProgramCount.toString(), Long.toString(programCount),
+                    Float.toString(time), Boolean.toString(timedOut));
+        }
+    }
 }
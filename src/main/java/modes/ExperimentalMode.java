@@ -2,13 +2,30 @@ package modes;
 
 import model.Config;
 import model.ForbidCycles;
+import model.GeneratorSession;
 import model.IndependentPair;
 import model.Program;
+import model.SearchStrategy;
+import model.SearchWrapper;
 import org.chocosolver.solver.Solver;
-import org.chocosolver.solver.search.limits.FailCounter;
-import org.chocosolver.util.tools.ArrayUtils;
+import propagators.PropagationProfile;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/** Measures how long it takes to generate programs over a grid of parameters. The grid is split into jobs that run in
+ * parallel, and the results go to a file that also tells which jobs are done if the experiment is restarted. */
 public class ExperimentalMode {
 
     private static final List<Integer> VALUES = Arrays.asList(1, 2, 4, 8);
@@ -18,13 +35,106 @@ public class ExperimentalMode {
     private static final int NUM_REPEATS = 10;
     private static final int SOLUTIONS_PER_RUN = 1;
     private static final String TIMEOUT = "60s";
+    private static final double RESTART_GROWTH = 2;
+    private static final long SEED = 0;
+    private static final String OUTPUT_FILENAME = "data/runtime.csv";
+    // Each row starts with the position of its job in the grid, so that an interrupted experiment can be resumed
+    private static final String OUTPUT_HEADER = "job;numPredicates;maxArity;numVariables;numConstants;" +
+            "numAdditionalClauses;numIndependentPairs;maxNumNodes;statistics";
+    // Per-propagator statistics (see PropagationProfile) for the same runs, if enabled
+    private static final boolean PROFILE_PROPAGATION = false;
+    private static final String PROFILE_FILENAME = "data/propagation.csv";
+    private static final String PROFILE_HEADER = "job;numPredicates;maxArity;numVariables;numConstants;" +
+            "numAdditionalClauses;numIndependentPairs;maxNumNodes;" + PropagationProfile.HEADER;
 
     private static final String PREDICATE_PREFIX = "p";
     private static final String VARIABLE_PREFIX = "v";
     private static final String CONSTANT_PREFIX = "c";
 
-    public static void run() {
-        Random rng = new Random();
+    /** Run every job of the grid that doesn't have results in the output file yet on a pool of numThreads workers,
+     * appending the results of each job to the file as soon as it finishes. Each combination of a search strategy and
+     * wrapper (see Config) other than the default one gets output files of its own, so that they can be compared. */
+    public static void run(int numThreads, SearchStrategy search, SearchWrapper searchWrapper)
+            throws IOException, InterruptedException {
+        String suffix = "";
+        if (search != Config.DEFAULT_SEARCH || searchWrapper != Config.DEFAULT_SEARCH_WRAPPER)
+            suffix = "_" + search + "_" + searchWrapper;
+        String outputFilename = OUTPUT_FILENAME.replace(".csv", suffix + ".csv");
+        String profileFilename = PROFILE_FILENAME.replace(".csv", suffix + ".csv");
+
+        List<Job> jobs = generateJobs(search, searchWrapper);
+        Set<Integer> completedJobs = readCompletedJobs(outputFilename);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CompletionService<Result> results = new ExecutorCompletionService<>(executor);
+        ThreadLocal<GeneratorSession> sessions = ThreadLocal.withInitial(GeneratorSession::new);
+        int numSubmitted = 0;
+        for (Job job : jobs) {
+            if (completedJobs.contains(job.id))
+                continue;
+            results.submit(() -> job.run(sessions.get()));
+            numSubmitted++;
+        }
+        executor.shutdown();
+        System.out.println((jobs.size() - numSubmitted) + " jobs already done, " + numSubmitted + " to go");
+
+        BufferedWriter writer = openForAppending(outputFilename, OUTPUT_HEADER);
+        BufferedWriter profileWriter = PROFILE_PROPAGATION ? openForAppending(profileFilename, PROFILE_HEADER) : null;
+        try {
+            for (int i = 0; i < numSubmitted; i++) {
+                Result result;
+                try {
+                    result = results.take().get();
+                } catch (ExecutionException e) {
+                    executor.shutdownNow();
+                    throw new RuntimeException(e.getCause());
+                }
+                writer.write(result.statistics);
+                writer.flush();
+                if (profileWriter != null) {
+                    profileWriter.write(result.profile);
+                    profileWriter.flush();
+                }
+            }
+        } finally {
+            writer.close();
+            if (profileWriter != null)
+                profileWriter.close();
+        }
+    }
+
+    /** The header goes to the file right away, so that an experiment killed before its first result still leaves a
+     * file that can be resumed from. A line cut short by an interrupted write is removed. */
+    private static BufferedWriter openForAppending(String filename, String header) throws IOException {
+        File file = new File(filename);
+        if (file.exists())
+            removeIncompleteLine(file);
+        boolean empty = file.length() == 0;
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file, true));
+        if (empty) {
+            writer.write(header);
+            writer.newLine();
+            writer.flush();
+        }
+        return writer;
+    }
+
+    private static void removeIncompleteLine(File file) throws IOException {
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            long end = f.length();
+            while (end > 0) {
+                f.seek(end - 1);
+                if (f.read() == '\n')
+                    break;
+                end--;
+            }
+            f.setLength(end);
+        }
+    }
+
+    /** The grid of experiments, with random choices made in advance (and the same every time) */
+    private static List<Job> generateJobs(SearchStrategy search, SearchWrapper searchWrapper) {
+        Random rng = new Random(SEED);
+        List<Job> jobs = new ArrayList<>();
         for (int numPredicates : VALUES) {
             String[] predicates = new String[numPredicates];
             fillWithNames(predicates, PREDICATE_PREFIX);
@@ -62,8 +172,10 @@ public class ExperimentalMode {
                                                 TIMEOUT, Arrays.asList(predicates), Arrays.asList(arities),
                                                 Arrays.asList(variables), Arrays.asList(constants),
                                                 Arrays.asList(independentPairs), null);
-                                        Program p = new Program(config);
-                                        compileStatistics(p, SOLUTIONS_PER_RUN, prefix);
+                                        config.profilePropagation = PROFILE_PROPAGATION;
+                                        config.search = search.name();
+                                        config.searchWrapper = searchWrapper.name();
+                                        jobs.add(new Job(jobs.size(), prefix, config, rng.nextLong()));
                                     }
                                 }
                             }
@@ -72,19 +184,79 @@ public class ExperimentalMode {
                 }
             }
         }
+        return jobs;
+    }
+
+    /** The jobs that have all their rows in the output file. Jobs finish in any order, so they are identified by
+     * their position in the grid. */
+    private static Set<Integer> readCompletedJobs(String filename) throws IOException {
+        Set<Integer> completedJobs = new HashSet<>();
+        File file = new File(filename);
+        if (!file.exists())
+            return completedJobs;
+        String contents = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>(Arrays.asList(contents.split("\\r?\\n", -1)));
+        lines.remove(lines.size() - 1); // empty, or a line that was cut short
+        if (lines.isEmpty())
+            return completedJobs;
+        if (!lines.get(0).equals(OUTPUT_HEADER))
+            throw new IOException(filename + " doesn't start with the expected header (it may be from an older " +
+                    "version), so the experiment can't be resumed from it");
+        Map<Integer, Integer> numRows = new HashMap<>();
+        for (String line : lines.subList(1, lines.size()))
+            numRows.merge(Integer.parseInt(line.substring(0, line.indexOf(';'))), 1, Integer::sum);
+        numRows.forEach((job, n) -> {
+            if (n >= SOLUTIONS_PER_RUN)
+                completedJobs.add(job);
+        });
+        return completedJobs;
+    }
+
+    private static class Job {
+
+        private final int id; // the position in the grid
+        private final String prefix;
+        private final Config config;
+        private final long seed;
+
+        Job(int id, String prefix, Config config, long seed) {
+            this.id = id;
+            this.prefix = prefix;
+            this.config = config;
+            this.seed = seed;
+        }
+
+        /** Solve the config and return its statistics, one line per solution */
+        Result run(GeneratorSession session) {
+            Program p = session.getProgram(config, seed);
+            String rowPrefix = id + ";" + prefix;
+            String statistics = compileStatistics(p, SOLUTIONS_PER_RUN, rowPrefix);
+            return new Result(statistics, p.profile == null ? null : p.profile.toCSV(rowPrefix));
+        }
+    }
+
+    private static class Result {
+
+        private final String statistics;
+        private final String profile; // null unless profiling
+
+        Result(String statistics, String profile) {
+            this.statistics = statistics;
+            this.profile = profile;
+        }
     }
 
-    private static void compileStatistics(Program p, int numSolutions, String prefix) {
+    private static String compileStatistics(Program p, int numSolutions, String prefix) {
         Solver solver = p.model.getSolver();
-        solver.setGeometricalRestart(10, 2, new FailCounter(p.model, 1), 100);
-        //solver.setRestartOnSolutions();
+        p.setUpRestarts(RESTART_GROWTH);
         if (p.config.timeout != null)
             solver.limitTime(p.config.timeout);
+        StringBuilder statistics = new StringBuilder();
         for (int i = 0; i < numSolutions; i++) {
             solver.solve();
-            System.out.print(prefix + ";");
-            solver.printCSVStatistics();
+            statistics.append(prefix).append(';').append(solver.getMeasures().toCSV()).append(System.lineSeparator());
         }
+        return statistics.toString();
     }
 
     private static void fillWithNames(String[] array, String prefix) {
@@ -145,8 +317,11 @@ public class ExperimentalMode {
             lastArity = 0;
         }
 
-        for (int i = firstArity; i >= lastArity; i--)
-            possibilities.addAll(generateArities(ArrayUtils.concat(arities, i), numArities, maxArity));
+        for (int i = firstArity; i >= lastArity; i--) {
+            Integer[] extendedArities = Arrays.copyOf(arities, arities.length + 1);
+            extendedArities[arities.length] = i;
+            possibilities.addAll(generateArities(extendedArities, numArities, maxArity));
+        }
         return possibilities;
     }
 }
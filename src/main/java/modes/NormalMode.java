@@ -1,35 +1,243 @@
 package modes;
 
 import model.Config;
+import model.FactSheet;
+import model.GeneratedProgram;
+import model.GeneratorSession;
+import model.GroundingEstimator;
+import model.HashingSampler;
 import model.Program;
+import model.ProgramCounter;
+import model.ProgramSampler;
+import org.chocosolver.solver.Model;
+import org.chocosolver.solver.ParallelPortfolio;
 import org.chocosolver.solver.Solver;
-import org.chocosolver.solver.search.limits.FailCounter;
+import org.chocosolver.solver.search.SearchState;
+import org.chocosolver.util.tools.TimeUtils;
+import output.ProgramIndex;
+import output.ProgramSink;
+import propagators.PropagationProfile;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 public class NormalMode {
 
+    private static final double RESTART_GROWTH = 1.1;
+    private static final double RESTART_GROWTH_STEP = 0.1; // each portfolio worker restarts a bit less often
+    private static final int MAX_REJECTED_SAMPLES = 1000; // before deciding that the samplers can't find anything new
+
     public static void run() throws IOException {
-        Program p = new Program(Config.initialiseFromFile());
+        generate(Config.initialiseFromFile(), new GeneratorSession());
+    }
+
+    /** Generate and write the programs of the config to the sink chosen in the config */
+    public static Summary generate(Config config, GeneratorSession session) throws IOException {
+        return generate(config, session, ProgramSink.forConfig(config));
+    }
+
+    /** Generate the programs of the config and write them to the sink (which is closed afterwards). A single solver
+     * gets its model from the session, so that repeated configs of the same shape (e.g., in batch mode) don't need to
+     * build it again. */
+    public static Summary generate(Config config, GeneratorSession session, ProgramSink sink) throws IOException {
+        Random rng = config.seed == null ? new Random() : new Random(config.seed);
+        try (Output output = new Output(config, rng.nextLong(), sink)) {
+            if (ProgramCounter.isSupported(config))
+                return sample(config, rng, output);
+            if (config.nearUniform)
+                return sampleWithHashing(config, rng, output);
+            if (config.numThreads > 1)
+                return runPortfolio(config, rng, output);
+
+            Program p = session.getProgram(config, rng.nextLong());
+            Solver solver = p.model.getSolver();
+            setUpSolver(p, RESTART_GROWTH);
+            if (p.config.printDebugInfo) {
+                solver.showDecisions();
+                solver.showContradiction();
+            }
+
+            while (output.numWritten < config.numSolutions && solver.solve())
+                output.write(p);
+            if (p.profile != null)
+                System.err.print("prefix;" + PropagationProfile.HEADER + System.lineSeparator() +
+                        p.profile.toCSV(config.prefix));
+            return new Summary(output.numWritten, solver.getSearchState() == SearchState.STOPPED);
+        }
+    }
+
+    /** Without constraints, there is no need for constraint solving */
+    private static Summary sample(Config config, Random rng, Output output) throws IOException {
+        ProgramSampler sampler = new ProgramSampler(config, rng.nextLong());
+        int numRejected = 0;
+        while (output.numWritten < config.numSolutions && numRejected < MAX_REJECTED_SAMPLES)
+            if (!output.write(sampler.sample()))
+                numRejected++;
+        return new Summary(output.numWritten, false);
+    }
+
+    private static Summary sampleWithHashing(Config config, Random rng, Output output) throws IOException {
+        HashingSampler sampler = new HashingSampler(config, rng.nextLong());
+        if (config.timeout != null)
+            sampler.setDeadline(System.nanoTime() +
+                    TimeUnit.MILLISECONDS.toNanos(TimeUtils.convertInMilliseconds(config.timeout)));
+        int numRejected = 0;
+        while (output.numWritten < config.numSolutions && numRejected < MAX_REJECTED_SAMPLES) {
+            GeneratedProgram program = sampler.sample();
+            if (sampler.isTimedOut())
+                return new Summary(output.numWritten, true);
+            if (program == null) {
+                System.err.println("There are no programs that satisfy the config");
+                break;
+            }
+            if (!output.write(program))
+                numRejected++;
+        }
+        return new Summary(output.numWritten, false);
+    }
+
+    /** Solve numThreads differently seeded copies of the model at the same time and take the first solution */
+    private static Summary runPortfolio(Config config, Random rng, Output output) throws IOException {
+        long[] seeds = new long[config.numThreads];
+        for (int i = 0; i < seeds.length; i++)
+            seeds[i] = rng.nextLong();
+
+        Program[] programs = new Program[config.numThreads];
+        IntStream.range(0, programs.length).parallel().forEach(i -> {
+            programs[i] = new Program(config, seeds[i]);
+            setUpSolver(programs[i], RESTART_GROWTH + i * RESTART_GROWTH_STEP);
+        });
+        ParallelPortfolio portfolio = new ParallelPortfolio(false); // keep our own search strategies
+        for (Program p : programs)
+            portfolio.addModel(p.model);
+
+        while (output.numWritten < config.numSolutions && portfolio.solve()) {
+            int winner = findWorker(programs, portfolio.getBestModel());
+            if (output.write(programs[winner]))
+                System.err.println("Program " + (output.numWritten - 1) + " found by worker " + winner);
+        }
+        if (config.profilePropagation) {
+            System.err.println("worker;" + PropagationProfile.HEADER);
+            for (int i = 0; i < programs.length; i++)
+                System.err.print(programs[i].profile.toCSV(Integer.toString(i)));
+        }
+        // The portfolio stops the other workers when one of them finishes, so only that one isn't STOPPED
+        boolean timedOut = Arrays.stream(programs)
+                .allMatch(p -> p.model.getSolver().getSearchState() == SearchState.STOPPED);
+        return new Summary(output.numWritten, timedOut);
+    }
+
+    private static void setUpSolver(Program p, double restartGrowth) {
         Solver solver = p.model.getSolver();
-        solver.setGeometricalRestart(10, 1.1, new FailCounter(p.model, 1), 100);
+        p.setUpRestarts(restartGrowth);
         if (p.config.timeout != null)
             solver.limitTime(p.config.timeout);
-        if (p.config.printDebugInfo) {
-            solver.showDecisions();
-            solver.showContradiction();
-        }
-
-        for (int i = 0; i < p.config.numSolutions && solver.solve(); i++) {
-            String suffix = "";
-            if (p.config.numSolutions > 1)
-                suffix = "_" + i;
-            BufferedWriter writer = new BufferedWriter(new FileWriter(p.config.outputDirectory +
-                    p.config.prefix + suffix +".pl"));
-            writer.write(p.toString());
-            writer.close();
+    }
+
+    private static int findWorker(Program[] programs, Model model) {
+        for (int i = 0; i < programs.length; i++)
+            if (programs[i].model == model)
+                return i;
+        throw new IllegalStateException("the solution was found by an unknown model");
+    }
+
+    /** How generating the programs of a config went */
+    public static class Summary {
+
+        public final int numPrograms;
+        public final boolean timedOut; // the search was stopped by config.timeout
+
+        Summary(int numPrograms, boolean timedOut) {
+            this.numPrograms = numPrograms;
+            this.timedOut = timedOut;
+        }
+    }
+
+    /** Where generated rules go: a fresh fact sheet is added (if the config asks for one), and solutions that are too
+     * big to ground or that have already been generated are skipped */
+    private static class Output implements Closeable {
+
+        private final Config config;
+        private final ProgramIndex index;
+        private final ProgramSink sink;
+        private final FactSheet facts; // null without a fact sheet
+        private int numWritten;
+        private int numDuplicates;
+        private int numTooBig;
+        private int numUnknownSize; // kept, since grounding them took too much work to tell
+
+        /** The output takes care of closing the sink */
+        Output(Config config, long seed, ProgramSink sink) throws IOException {
+            this.config = config;
+            this.sink = sink;
+            try {
+                facts = config.numFacts > 0 ? new FactSheet(config, seed) : null;
+                index = ProgramIndex.forConfig(config);
+            } catch (IOException | RuntimeException e) {
+                sink.close();
+                throw e;
+            }
+        }
+
+        /** Returns whether the program was written. Samples are filtered and deduplicated too: rejecting some of
+         * them leaves a uniform sample of the rest. */
+        boolean write(GeneratedProgram p) throws IOException {
+            if (facts != null)
+                facts.sample();
+            if (!isSmallEnough(p)) {
+                numTooBig++;
+                return false;
+            }
+            if (!index.add(p.getHash())) {
+                numDuplicates++;
+                return false;
+            }
+            StringBuilder program = new StringBuilder();
+            p.write(program);
+            if (facts != null)
+                facts.write(program);
+            sink.write(getName(), program.toString());
+            return true;
+        }
+
+        /** Is the ground program (with the current facts) small enough, if there is a limit? Programs that are too
+         * hard to estimate get the benefit of the doubt. */
+        private boolean isSmallEnough(GeneratedProgram p) {
+            if (config.maxGroundRules <= 0)
+                return true;
+            GroundingEstimator estimator = p.getGroundingEstimator();
+            if (facts != null)
+                facts.addTo(estimator);
+            GroundingEstimator.Estimate estimate = estimator.estimate(config.maxGroundRules);
+            if (!estimate.complete && !estimate.tooBig)
+                numUnknownSize++;
+            return !estimate.tooBig;
+        }
+
+        private String getName() {
+            int i = numWritten++;
+            if (config.numSolutions > 1)
+                return config.prefix + "_" + i;
+            return config.prefix;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (numDuplicates > 0)
+                System.err.println("Skipped " + numDuplicates + " programs that had already been generated");
+            if (numTooBig > 0)
+                System.err.println("Skipped " + numTooBig + " programs with too many ground rules");
+            if (numUnknownSize > 0)
+                System.err.println("Kept " + numUnknownSize + " programs that were too big to estimate");
+            try {
+                sink.close();
+            } finally {
+                index.close();
+            }
         }
     }
 }
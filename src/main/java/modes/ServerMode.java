@@ -0,0 +1,151 @@
+package modes;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import model.Config;
+import model.GeneratorSession;
+import org.chocosolver.util.tools.TimeUtils;
+import output.JsonLinesSink;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/** Normal mode as a resident service, so that clients that make many small requests don't pay for JVM startup (and a
+ * cold JIT) every time. The server only listens on the loopback interface. Each connection is one request: the client
+ * sends a config (as JSON or YAML) and closes its side of the connection. The reply is a JSON line for each program
+ * (with its name and text, as with the JSONL output) followed by a status line, as in batch mode. Requests wait in a
+ * bounded queue for a fixed number of workers (each one keeping the models of config shapes it has seen), and are
+ * turned away with the status busy when the queue is full.
+ *
+ * Clients don't get to decide how much of the machine a request uses: the timeout defaults to (and is capped at)
+ * MAX_TIMEOUT, each request gets at most its share of the processors, configs that would build a bigger model or fact
+ * sheet than the MAX_ constants allow are turned away (model construction isn't covered by the timeout), and the
+ * program index is ignored, since the server shouldn't write to whatever file a client names. */
+public class ServerMode {
+
+    public static final int DEFAULT_PORT = 7878;
+    private static final int QUEUE_CAPACITY = 64;
+    private static final int READ_TIMEOUT = 10000; // in milliseconds, so that a stuck client can't hold on to a worker
+    private static final int MAX_REQUEST_SIZE = 1 << 20; // in bytes
+    private static final String MAX_TIMEOUT = "60s";
+    private static final int MAX_NUM_NODES = 16;
+    private static final int MAX_NUM_CLAUSES = 64;
+    private static final int MAX_NUM_FACTS = 100000;
+    private static final int MAX_DOMAIN_SIZE = 10000;
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    private static final ObjectMapper YAML_MAPPER = new ObjectMapper(new YAMLFactory());
+
+    public static void run(int port, int numThreads) throws IOException {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+        ThreadLocal<GeneratorSession> sessions = ThreadLocal.withInitial(GeneratorSession::new);
+        try (ServerSocket server = new ServerSocket(port, QUEUE_CAPACITY, InetAddress.getLoopbackAddress())) {
+            System.err.println("Listening on port " + server.getLocalPort() + " with " + numThreads + " workers");
+            int maxThreadsPerRequest = Math.max(1, Runtime.getRuntime().availableProcessors() / numThreads);
+            while (true) {
+                Socket socket = server.accept();
+                try {
+                    executor.execute(() -> handle(socket, sessions.get(), maxThreadsPerRequest));
+                } catch (RejectedExecutionException e) {
+                    reject(socket);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void handle(Socket socket, GeneratorSession session, int maxThreads) {
+        try {
+            socket.setSoTimeout(READ_TIMEOUT);
+            PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()), false, "UTF-8");
+            Config config;
+            try {
+                config = readConfig(socket.getInputStream());
+                limit(config, maxThreads);
+            } catch (IOException | IllegalArgumentException e) {
+                Map<String, Object> status = new LinkedHashMap<>();
+                status.put("status", "error");
+                status.put("message", e.toString());
+                reply(out, status);
+                return;
+            }
+            reply(out, BatchMode.generate(config, () -> NormalMode.generate(config, session, new JsonLinesSink(out))));
+            if (out.checkError())
+                System.err.println("The client that asked for " + config.prefix + " went away");
+        } catch (IOException e) {
+            System.err.println("Failed to answer a request: " + e);
+        } finally {
+            close(socket);
+        }
+    }
+
+    private static void limit(Config config, int maxThreads) {
+        long maxTimeout = TimeUtils.convertInMilliseconds(MAX_TIMEOUT);
+        if (config.timeout == null || TimeUtils.convertInMilliseconds(config.timeout) > maxTimeout)
+            config.timeout = MAX_TIMEOUT;
+        if (config.numThreads < 1)
+            throw new IllegalArgumentException("numThreads must be positive");
+        config.numThreads = Math.min(config.numThreads, maxThreads);
+        config.programIndex = null;
+        checkAtMost("maxNumNodes", config.maxNumNodes, MAX_NUM_NODES);
+        checkAtMost("maxNumClauses", config.maxNumClauses, MAX_NUM_CLAUSES);
+        checkAtMost("numFacts", config.numFacts, MAX_NUM_FACTS);
+        checkAtMost("domainSize", config.domainSize, MAX_DOMAIN_SIZE);
+    }
+
+    private static void checkAtMost(String name, int value, int max) {
+        if (value > max)
+            throw new IllegalArgumentException(name + " can be at most " + max + " on this server");
+    }
+
+    private static void reply(PrintStream out, Map<String, Object> status) throws IOException {
+        out.println(JSON_MAPPER.writeValueAsString(status));
+        out.flush();
+    }
+
+    /** Everything the client sends before closing its side of the connection, as JSON if it looks like JSON */
+    private static Config readConfig(InputStream in) throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            request.write(buffer, 0, n);
+            if (request.size() > MAX_REQUEST_SIZE)
+                throw new IOException("the request is bigger than " + MAX_REQUEST_SIZE + " bytes");
+        }
+        String text = request.toString("UTF-8").trim();
+        ObjectMapper mapper = text.startsWith("{") ? JSON_MAPPER : YAML_MAPPER;
+        return mapper.readValue(text, Config.class);
+    }
+
+    private static void reject(Socket socket) {
+        try {
+            socket.getOutputStream().write("{\"status\":\"busy\"}\n".getBytes("UTF-8"));
+        } catch (IOException e) {
+            System.err.println("Failed to turn away a request: " + e);
+        } finally {
+            close(socket);
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close a connection: " + e);
+        }
+    }
+}
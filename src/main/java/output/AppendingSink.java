@@ -0,0 +1,45 @@
+package output;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/** All programs are appended to a single .pl file. A separate .index file has a line for each program with its name,
+ * byte offset, and length (separated by semicolons), so that individual programs can be read back without parsing
+ * the whole file. */
+public class AppendingSink implements ProgramSink {
+
+    private final OutputStream programs;
+    private final BufferedWriter index;
+    private long offset;
+
+    public AppendingSink(String directory, String name) throws IOException {
+        File file = new File(directory + name + ".pl");
+        offset = file.length(); // continue after whatever is already there
+        programs = new BufferedOutputStream(new FileOutputStream(file, true));
+        index = new BufferedWriter(new FileWriter(directory + name + ".index", true));
+    }
+
+    @Override
+    public void write(String name, String program) throws IOException {
+        byte[] bytes = program.getBytes(StandardCharsets.UTF_8);
+        programs.write(bytes);
+        index.write(name + ";" + offset + ";" + bytes.length);
+        index.newLine();
+        offset += bytes.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            programs.close();
+        } finally {
+            index.close();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package output;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/** Passes programs on to another sink from a background thread, so that the solver doesn't wait for I/O (unless it
+ * gets too far ahead). An error in the background thread is thrown by the next call to write() or close(). */
+public class BackgroundSink implements ProgramSink {
+
+    private static final int CAPACITY = 1024; // programs waiting to be written
+    private static final String[] END = new String[0];
+
+    private final ProgramSink sink;
+    private final BlockingQueue<String[]> queue = new ArrayBlockingQueue<>(CAPACITY); // pairs of names and programs
+    private final Thread writer;
+    private volatile IOException error;
+
+    public BackgroundSink(ProgramSink sink) {
+        this.sink = sink;
+        writer = new Thread(this::writeAll, "program-writer");
+        writer.start();
+    }
+
+    private void writeAll() {
+        try {
+            for (String[] entry = queue.take(); entry != END; entry = queue.take())
+                sink.write(entry[0], entry[1]);
+        } catch (IOException e) {
+            error = e;
+            queue.clear(); // nothing else will be written, but don't leave anyone waiting
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void write(String name, String program) throws IOException {
+        checkForErrors();
+        try {
+            queue.put(new String[]{name, program});
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (writer.isAlive())
+                queue.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            sink.close();
+        }
+        checkForErrors();
+    }
+
+    private void checkForErrors() throws IOException {
+        if (error != null)
+            throw error;
+    }
+}
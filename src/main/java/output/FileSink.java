@@ -0,0 +1,26 @@
+package output;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/** Each program goes to its own .pl file in the directory */
+public class FileSink implements ProgramSink {
+
+    private final String directory;
+
+    public FileSink(String directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void write(String name, String program) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(directory + name + ".pl"))) {
+            writer.write(program);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,32 @@
+package output;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Each program becomes a JSON object with its name and text on a line of its own */
+public class JsonLinesSink implements ProgramSink {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final PrintStream out;
+
+    public JsonLinesSink(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(String name, String program) throws IOException {
+        Map<String, String> line = new LinkedHashMap<>();
+        line.put("name", name);
+        line.put("program", program);
+        out.println(mapper.writeValueAsString(line));
+    }
+
+    @Override
+    public void close() {
+        out.flush(); // the stream belongs to someone else
+    }
+}
@@ -0,0 +1,189 @@
+package output;
+
+import model.Config;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** The hashes of the programs generated so far (see GeneratedProgram.getHash()), so that the same program is never
+ * written twice. Hashes are kept in memory for the whole process (so that batch configs and server requests don't
+ * repeat each other's programs either) and, optionally, in a file that is shared by every run (and every process at
+ * the same time) that uses it. */
+public class ProgramIndex implements Closeable {
+
+    // Every index without a file shares these
+    private static final Set<Long> processHashes = ConcurrentHashMap.newKeySet();
+    // A process can't lock a file twice, so indices that use the same file (e.g., in batch mode) share it
+    private static final Map<Path, HashFile> openFiles = new HashMap<>();
+
+    private final Set<Long> hashes; // shared with every other index of the process that uses the same file (or none)
+    private final HashFile file; // null unless the index is persistent
+
+    /** An index that only lasts as long as the process */
+    public ProgramIndex() {
+        hashes = processHashes;
+        file = null;
+    }
+
+    /** An index that is also stored in the file (which is created if it doesn't exist) */
+    public ProgramIndex(String filename) throws IOException {
+        Path path = Paths.get(filename).toAbsolutePath().normalize();
+        synchronized (openFiles) {
+            HashFile file = openFiles.get(path);
+            if (file == null) {
+                file = new HashFile(path);
+                openFiles.put(path, file);
+            }
+            file.numUsers++;
+            this.file = file;
+        }
+        hashes = file.hashes;
+    }
+
+    /** The index chosen in the config */
+    public static ProgramIndex forConfig(Config config) throws IOException {
+        if (config.programIndex == null)
+            return new ProgramIndex();
+        return new ProgramIndex(config.programIndex);
+    }
+
+    /** Remember the hash. Returns false if the index already had it, i.e., the program is a duplicate. */
+    public boolean add(long hash) throws IOException {
+        if (!hashes.add(hash))
+            return false;
+        return file == null || file.add(hash);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file == null)
+            return;
+        synchronized (openFiles) {
+            if (--file.numUsers == 0) {
+                openFiles.remove(file.path);
+                file.close();
+            }
+        }
+    }
+
+    /** An open-addressing hash table of longs in a memory-mapped file. The header has a magic number, the number of
+     * slots (a power of two), and the number of hashes. Every update locks the whole file, and other processes notice
+     * that the table has grown by looking at the header. */
+    private static class HashFile implements Closeable {
+
+        private static final long MAGIC = 0x524c50494e444558L; // "RLPINDEX"
+        private static final int CAPACITY_POSITION = Long.BYTES;
+        private static final int SIZE_POSITION = 2 * Long.BYTES;
+        private static final int HEADER_SIZE = 3 * Long.BYTES;
+        private static final long INITIAL_CAPACITY = 1 << 16;
+        private static final long EMPTY = 0;
+
+        private final Path path;
+        private final Set<Long> hashes = ConcurrentHashMap.newKeySet(); // the ones this process has seen
+        private final FileChannel channel;
+        private MappedByteBuffer buffer;
+        private long capacity; // the number of slots in the current mapping
+        private int numUsers; // the number of open indices that use the file
+
+        HashFile(Path path) throws IOException {
+            this.path = path;
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE);
+            try {
+                FileLock lock = channel.lock();
+                try {
+                    if (channel.size() == 0) {
+                        map(INITIAL_CAPACITY);
+                        buffer.putLong(0, MAGIC);
+                        buffer.putLong(CAPACITY_POSITION, capacity);
+                        buffer.putLong(SIZE_POSITION, 0);
+                    } else {
+                        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                        channel.read(header, 0);
+                        if (header.position() < HEADER_SIZE || header.getLong(0) != MAGIC)
+                            throw new IOException(path + " is not a program index");
+                        map(header.getLong(CAPACITY_POSITION));
+                    }
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /** Both the file lock and the monitor are needed: the lock only keeps other processes out */
+        synchronized boolean add(long hash) throws IOException {
+            if (hash == EMPTY)
+                hash = 1; // the odds of this mattering are negligible
+            FileLock lock = channel.lock();
+            try {
+                long currentCapacity = buffer.getLong(CAPACITY_POSITION);
+                if (currentCapacity != capacity)
+                    map(currentCapacity);
+                if (!insert(hash))
+                    return false;
+                long size = buffer.getLong(SIZE_POSITION) + 1;
+                buffer.putLong(SIZE_POSITION, size);
+                if (2 * size > capacity)
+                    grow();
+                return true;
+            } finally {
+                lock.release();
+            }
+        }
+
+        /** Linear probing. Returns false if the hash is already there. */
+        private boolean insert(long hash) {
+            long mask = capacity - 1;
+            for (long slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int position = HEADER_SIZE + (int) slot * Long.BYTES;
+                long value = buffer.getLong(position);
+                if (value == hash)
+                    return false;
+                if (value == EMPTY) {
+                    buffer.putLong(position, hash);
+                    return true;
+                }
+            }
+        }
+
+        /** Double the number of slots and put every hash in its new slot */
+        private void grow() throws IOException {
+            if (2 * capacity > (Integer.MAX_VALUE - HEADER_SIZE) / Long.BYTES)
+                throw new IOException(path + " is full");
+            long[] hashes = new long[(int) capacity];
+            for (int slot = 0; slot < hashes.length; slot++)
+                hashes[slot] = buffer.getLong(HEADER_SIZE + slot * Long.BYTES);
+            map(2 * capacity);
+            for (int slot = 0; slot < hashes.length; slot++)
+                buffer.putLong(HEADER_SIZE + slot * Long.BYTES, EMPTY);
+            for (long hash : hashes)
+                if (hash != EMPTY)
+                    insert(hash);
+            buffer.putLong(CAPACITY_POSITION, capacity);
+        }
+
+        private void map(long capacity) throws IOException {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity * Long.BYTES);
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
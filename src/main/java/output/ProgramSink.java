@@ -0,0 +1,28 @@
+package output;
+
+import model.Config;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/** Somewhere to put generated programs. Closing the sink makes sure that everything written to it is stored. */
+public interface ProgramSink extends Closeable {
+
+    void write(String name, String program) throws IOException;
+
+    /** The sink chosen in the config, with writing done on a background thread */
+    static ProgramSink forConfig(Config config) throws IOException {
+        ProgramSink sink;
+        switch (config.getOutputFormat()) {
+            case APPENDED:
+                sink = new AppendingSink(config.outputDirectory, config.prefix);
+                break;
+            case JSONL:
+                sink = new JsonLinesSink(System.out);
+                break;
+            default:
+                sink = new FileSink(config.outputDirectory);
+        }
+        return new BackgroundSink(sink);
+    }
+}
@@ -4,196 +4,126 @@ import model.Body;
 import model.IndependentPair;
 import model.Program;
 import model.Token;
-import org.chocosolver.solver.constraints.Propagator;
-import org.chocosolver.solver.exception.ContradictionException;
+import org.chocosolver.memory.IStateBitSet;
 import org.chocosolver.solver.variables.IntVar;
-import org.chocosolver.util.ESat;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+/** Independence of two predicates given a condition: occurrences of the condition (i.e., the condition predicates
+ * as children of a node with the condition operator) don't count as edges of the dependency graph.
+ *
+ * The graph keeps all edges that are sure to exist: edges from determined clauses (with the condition masked out) and
+ * edges from determined heads to determined body predicates that are not part of the condition (since those can never
+ * be masked). */
+public class ConditionalIndependencePropagator extends DependencyGraphPropagator {
 
-public class ConditionalIndependencePropagator extends Propagator<IntVar> {
+    private final Body[] bodies;
+    private final int operator;
+    private final int[] conditionedPredicates; // shifted by Token.values().length
+    private final boolean[] isConditioned; // indexed by predicate
+    private final IntVar[][] structures; // per clause
 
-    private boolean[][] adjacencyMatrix;
-    private Program program;
-    private IndependentPair independentPair;
-    private int predicate1;
-    private int predicate2;
+    private final IStateBitSet determinedClauses; // clauses whose masked edges are already in the graph
+
+    // Reusable memory
+    private final boolean[] masked; // per node
+    private final int[] matchedNodes; // per condition predicate, the node that matches it (or -1)
 
     public ConditionalIndependencePropagator(IndependentPair independentPair, Program program) {
-        super(NegativeCyclePropagator.constructDecisionVariables(program.clauseAssignments, program.bodies));
-        this.independentPair = independentPair;
-        this.program = program;
-        predicate1 = IndependentPair.toInt(program.config.predicates, independentPair.predicate1);
-        predicate2 = IndependentPair.toInt(program.config.predicates, independentPair.predicate2);
+        super(NegativeCyclePropagator.constructDecisionVariables(program.clauseAssignments, program.bodies), program,
+                new int[]{IndependentPair.toInt(program.config.predicates, independentPair.predicate1)},
+                new int[]{IndependentPair.toInt(program.config.predicates, independentPair.predicate2)});
+        bodies = program.bodies;
+        operator = independentPair.condition.getOperator().ordinal();
+        conditionedPredicates = independentPair.condition.getPredicates(program.config.predicates);
+        isConditioned = new boolean[numPredicates];
+        for (int p : conditionedPredicates)
+            isConditioned[p - Token.values().length] = true;
+        structures = new IntVar[bodies.length][];
+        for (int i = 0; i < bodies.length; i++)
+            structures[i] = bodies[i].getTreeStructure();
+
+        determinedClauses = model.getEnvironment().makeBitSet(bodies.length);
+        masked = new boolean[program.config.maxNumNodes];
+        matchedNodes = new int[conditionedPredicates.length];
     }
 
     @Override
-    public void propagate(int evtmask) throws ContradictionException {
-        if (isEntailed() == ESat.FALSE) {
-            //System.out.println("Propagation failed");
-            fails();
-        }
+    protected boolean isConditioned(int predicate) {
+        return isConditioned[predicate];
     }
 
+    /** Once the clause is determined, the occurrences of conditioned predicates outside the condition count as well */
     @Override
-    public ESat isEntailed() {
-        //program.basicToString();
-        adjacencyMatrix = constructAdjacencyMatrix();
-        //printAdjacencyMatrix();
-        Set<Integer> dependencies1 = getDependencies(predicate1);
-        Set<Integer> dependencies2 = getDependencies(predicate2);
-        //System.out.println("Dependencies of " + program.predicates[predicate1] + ": " + setToString(dependencies1));
-        //System.out.println("Dependencies of " + program.predicates[predicate2] + ": " + setToString(dependencies2));
-        dependencies1.retainAll(dependencies2);
-        if (!dependencies1.isEmpty()) {
-            //System.out.println("Entailment failed");
-            return ESat.FALSE;
+    protected void addEdges(int clause, IStateBitSet bodyPredicates) {
+        if (determinedClauses.get(clause) || !allDetermined(clauseAssignments[clause], bodies[clause])) {
+            super.addEdges(clause, bodyPredicates);
+            return;
         }
-        if (allDetermined())
-            return ESat.TRUE;
-        return ESat.UNDEFINED;
-    }
-
-    private String setToString(Set<Integer> set) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("{");
-        boolean first = true;
-        for (int i : set) {
-            if (!first)
-                builder.append(", ");
-            builder.append(program.config.predicates.get(i));
-            first = false;
+        determinedClauses.set(clause);
+        findMaskedNodes(clause);
+        for (int i = 0; i < values[clause].length; i++) {
+            int bodyPredicate = values[clause][i].getValue() - Token.values().length;
+            if (bodyPredicate >= 0 && !masked[i])
+                bodyPredicates.set(bodyPredicate);
         }
-        builder.append("}");
-        return builder.toString();
     }
 
-    private void printAdjacencyMatrix() {
-        for (int i = 0; i < adjacencyMatrix.length; i++) {
-            System.out.print(program.config.predicates.get(i) + ":");
-            for (int j = 0; j < adjacencyMatrix[i].length; j++) {
-                int value = 0;
-                if (adjacencyMatrix[i][j])
-                    value = 1;
-                System.out.print(" " + value);
+    @Override
+    protected boolean addDeterminedEdges(long[][] dependencies) {
+        boolean allDetermined = true;
+        for (int clause = 0; clause < bodies.length; clause++) {
+            // All predicates and the structure of the clause must be determined
+            if (!allDetermined(clauseAssignments[clause], bodies[clause])) {
+                allDetermined = false;
+                continue;
             }
-            System.out.println();
-        }
-    }
-
-    /** Check if all predicates and structural variables are determined */
-    private boolean allDetermined() {
-        for (int i = 0; i < program.bodies.length; i++) {
-            if (program.clauseAssignments[i].getDomainSize() != 1)
-                return false;
-            if (!program.bodies[i].allDetermined())
-                return false;
-        }
-        return true;
-    }
-
-    private Set<Integer> getDependencies(int initialPredicate) {
-        Set<Integer> dependencies = new HashSet<>();
-        dependencies.add(initialPredicate);
-        while (true) {
-            Set<Integer> newDependencies = new HashSet<>();
-            for (int dependency : dependencies)
-                for (int i = 0; i < adjacencyMatrix.length; i++)
-                    if (adjacencyMatrix[i][dependency])
-                        newDependencies.add(i);
-            int previousSize = dependencies.size();
-            dependencies.addAll(newDependencies);
-            if (dependencies.size() == previousSize)
-                break;
-        }
-        return dependencies;
-    }
-
-    private boolean[][] constructAdjacencyMatrix() {
-        int numPredicates = program.config.predicates.size();
-        List<String> predicates = independentPair.condition.predicates;
-        int[] conditionedPredicates = new int[predicates.size()]; // shifted by Token.values().length
-        for (int i = 0; i < predicates.size(); i++) {
-            for (int j = 0; j < numPredicates; j++) {
-                if (predicates.get(i).equals(program.config.predicates.get(j))) {
-                    conditionedPredicates[i] = Token.values().length + j;
-                    break;
-                }
+            int head = clauseAssignments[clause].getValue();
+            if (head == numPredicates)
+                continue;
+            findMaskedNodes(clause);
+            for (int i = 0; i < values[clause].length; i++) {
+                int bodyPredicate = values[clause][i].getValue() - Token.values().length;
+                if (bodyPredicate >= 0 && !masked[i])
+                    add(dependencies[head], bodyPredicate);
             }
         }
+        return allDetermined;
+    }
 
-        // A[i][j] = there is an edge from i to j = predicate i is in the body while predicate j is the head
-        boolean[][] A = new boolean[numPredicates][numPredicates];
-        for (int clause = 0; clause < program.bodies.length; clause++) {
-            // All predicates and the structure of the clause must be determined
-            if (!allDetermined(program.clauseAssignments[clause], program.bodies[clause])) {
-                //System.out.println("Skipped");
+    /** Fill the masked array with the nodes of a determined body that form an occurrence of the condition */
+    private void findMaskedNodes(int clause) {
+        IntVar[] structure = structures[clause];
+        IntVar[] values = this.values[clause];
+        for (int i = 0; i < masked.length; i++)
+            masked[i] = false;
+        // For each possible root node of the condition
+        for (int root = 0; root < structure.length; root++) {
+            if (values[root].getValue() != operator)
                 continue;
-            }
-
-            IntVar[] structure = program.bodies[clause].getTreeStructure();
-            IntVar[] values = program.bodies[clause].getPredicates();
-            boolean[] allMaskedIndices = new boolean[structure.length];
-            // For each possible root node of the condition
-            for (int root = 0; root < structure.length; root++) {
-                if (structure[root].getValue() != independentPair.condition.getOperator().ordinal())
+            for (int p = 0; p < matchedNodes.length; p++)
+                matchedNodes[p] = -1;
+            int numFound = 0;
+            for (int i = 0; i < structure.length; i++) {
+                if (i == root || structure[i].getValue() != root)
                     continue;
-                boolean[] foundPredicates = new boolean[conditionedPredicates.length];
-                boolean[] maskedIndices = new boolean[structure.length];
-                for (int i = 0; i < maskedIndices.length; i++) {
-                    if (structure[i].getValue() != root)
-                        continue;
-                    for (int p = 0; p < foundPredicates.length; p++) {
-                        if (!foundPredicates[p] && values[i].getValue() == conditionedPredicates[p]) {
-                            foundPredicates[p] = true;
-                            maskedIndices[i] = true;
-                            break;
-                        }
+                for (int p = 0; p < matchedNodes.length; p++) {
+                    if (matchedNodes[p] == -1 && values[i].getValue() == conditionedPredicates[p]) {
+                        matchedNodes[p] = i;
+                        numFound++;
+                        break;
                     }
                 }
-
-                // If we found the entire condition, merge it with other instances of the same condition
-                if (allTrue(foundPredicates))
-                    for (int i = 0; i < maskedIndices.length; i++)
-                        if (maskedIndices[i])
-                            allMaskedIndices[i] = true;
-            }
-
-            // Print the mask (for testing purposes)
-            /*for (int i = 0; i < allMaskedIndices.length; i++) {
-                if (i > 0)
-                    System.out.print(" ");
-                if (allMaskedIndices[i]) {
-                    System.out.print("1");
-                } else {
-                    System.out.print("0");
-                }
             }
-            System.out.println();*/
 
-            // Add edges to the graph
-            int headPredicate = program.clauseAssignments[clause].getValue();
-            for (int i = 0; i < values.length; i++) {
-                int bodyPredicate = values[i].getValue() - Token.values().length;
-                if (bodyPredicate >= 0 && !A[headPredicate][bodyPredicate] && !allMaskedIndices[i])
-                    A[headPredicate][bodyPredicate] = true;
-            }
+            // If we found the entire condition, merge it with other instances of the same condition
+            if (numFound == matchedNodes.length)
+                for (int i : matchedNodes)
+                    masked[i] = true;
         }
-        return A;
     }
 
     private boolean allDetermined(IntVar head, Body body) {
-        if (head.getDomainSize() != 1)
+        if (!head.isInstantiated())
             return false;
         return body.allDetermined();
     }
-
-    private boolean allTrue(boolean[] array) {
-        for (boolean b : array)
-            if (!b)
-                return false;
-        return true;
-    }
 }
@@ -0,0 +1,210 @@
+package propagators;
+
+import model.Program;
+import model.Token;
+import org.chocosolver.memory.IStateBitSet;
+import org.chocosolver.solver.constraints.PropagatorPriority;
+import org.chocosolver.solver.exception.ContradictionException;
+import org.chocosolver.solver.variables.IntVar;
+import org.chocosolver.solver.variables.events.IntEventType;
+import org.chocosolver.solver.variables.events.PropagatorEventType;
+import org.chocosolver.util.ESat;
+
+/** The part of the independence propagators that maintains the dependency graph and keeps pairs of predicates from
+ * depending on the same predicate. The graph has an edge from the head of each clause to every predicate in its body.
+ * The edges that are sure to exist are kept in backtrackable storage and added one clause at a time. The dependencies
+ * of every predicate are then computed at once as a transitive closure over bitsets (one bit per predicate), reusing
+ * the same memory for every call.
+ *
+ * Subclasses decide which occurrences of a predicate count as edges: a predicate for which isConditioned is true only
+ * counts once its clause is fully determined (see addEdges). */
+abstract class DependencyGraphPropagator extends ProfiledPropagator {
+
+    protected final IntVar[] clauseAssignments;
+    protected final IntVar[][] values; // per clause, the value of each node
+    protected final int numPredicates;
+    private final int numVariablesPerClause; // after the clause assignments, the variables are grouped by clause
+    private final int[] predicates1; // per pair
+    private final int[] predicates2; // per pair
+
+    private final IStateBitSet[] edges; // edges[head] holds the predicates in the bodies of its clauses
+
+    // Reusable memory
+    private final long[][] dependencies; // dependencies[p] is the set of predicates that p depends on
+
+    DependencyGraphPropagator(IntVar[] variables, Program program, int[] predicates1, int[] predicates2) {
+        super(variables, PropagatorPriority.QUADRATIC, true);
+        clauseAssignments = program.clauseAssignments;
+        values = new IntVar[program.bodies.length][];
+        for (int i = 0; i < program.bodies.length; i++)
+            values[i] = program.bodies[i].getPredicates();
+        numPredicates = program.config.predicates.size();
+        numVariablesPerClause = (variables.length - clauseAssignments.length) / clauseAssignments.length;
+        this.predicates1 = predicates1;
+        this.predicates2 = predicates2;
+
+        edges = new IStateBitSet[numPredicates];
+        for (int i = 0; i < numPredicates; i++)
+            edges[i] = model.getEnvironment().makeBitSet(numPredicates);
+        dependencies = new long[numPredicates][(numPredicates + Long.SIZE - 1) / Long.SIZE];
+    }
+
+    /** Should occurrences of the predicate be left out of the graph until their clause is determined? */
+    protected boolean isConditioned(int predicate) {
+        return false;
+    }
+
+    /** Add the edges from the (determined) head of the clause to its body predicates that are sure to exist */
+    protected void addEdges(int clause, IStateBitSet bodyPredicates) {
+        for (IntVar value : values[clause]) {
+            int bodyPredicate = value.getLB() - Token.values().length;
+            if (value.isInstantiated() && bodyPredicate >= 0 && !isConditioned(bodyPredicate))
+                bodyPredicates.set(bodyPredicate);
+        }
+    }
+
+    /** Add the edges of every determined clause to the dependencies (one row per head predicate). Returns true if all
+     * clauses are determined. */
+    protected abstract boolean addDeterminedEdges(long[][] dependencies);
+
+    @Override
+    public int getPropagationConditions(int vIdx) {
+        return IntEventType.instantiation();
+    }
+
+    @Override
+    protected void finePropagate(int idxVarInProp, int mask) throws ContradictionException {
+        int numClauses = clauseAssignments.length;
+        int clause = idxVarInProp < numClauses ? idxVarInProp : (idxVarInProp - numClauses) / numVariablesPerClause;
+        updateClause(clause);
+        forcePropagate(PropagatorEventType.CUSTOM_PROPAGATION);
+    }
+
+    @Override
+    protected void coarsePropagate(int evtmask) throws ContradictionException {
+        if (PropagatorEventType.isFullPropagation(evtmask))
+            for (int clause = 0; clause < clauseAssignments.length; clause++)
+                updateClause(clause);
+        boolean changed = true;
+        while (changed) {
+            computeDependencies();
+            if (anyPairDependent(dependencies))
+                fails();
+            changed = false;
+            for (int clause = 0; clause < clauseAssignments.length; clause++)
+                changed |= filter(clause);
+        }
+    }
+
+    private void updateClause(int clause) {
+        IntVar head = clauseAssignments[clause];
+        if (head.isInstantiated() && head.getValue() != numPredicates)
+            addEdges(clause, edges[head.getValue()]);
+    }
+
+    /** Remove the head and body predicates that would add an edge that makes the predicates of a pair dependent.
+     * Returns true if a variable became instantiated, i.e., the graph might have new edges. */
+    private boolean filter(int clause) throws ContradictionException {
+        IntVar head = clauseAssignments[clause];
+        boolean instantiated = false;
+        for (IntVar value : values[clause]) {
+            if (head.isInstantiated() && !value.isInstantiated()) {
+                if (head.getValue() == numPredicates)
+                    return false;
+                for (int v = value.getLB(); v != Integer.MAX_VALUE; v = value.nextValue(v)) {
+                    int bodyPredicate = v - Token.values().length;
+                    if (bodyPredicate >= 0 && !isConditioned(bodyPredicate) &&
+                            createsCommonDependency(head.getValue(), bodyPredicate))
+                        value.removeValue(v, this);
+                }
+                if (value.isInstantiated()) {
+                    updateClause(clause);
+                    instantiated = true;
+                }
+            } else if (!head.isInstantiated() && value.isInstantiated()) {
+                int bodyPredicate = value.getValue() - Token.values().length;
+                if (bodyPredicate < 0 || isConditioned(bodyPredicate))
+                    continue;
+                for (int h = head.getLB(); h < numPredicates; h = head.nextValue(h))
+                    if (createsCommonDependency(h, bodyPredicate))
+                        head.removeValue(h, this);
+                if (head.isInstantiated()) {
+                    updateClause(clause);
+                    instantiated = true;
+                }
+            }
+        }
+        return instantiated;
+    }
+
+    /** Would an edge from head to body make the predicates of some pair depend on the same predicate? (Given that
+     * they don't already.) */
+    private boolean createsCommonDependency(int head, int body) {
+        for (int i = 0; i < predicates1.length; i++) {
+            long[] dependencies1 = dependencies[predicates1[i]];
+            long[] dependencies2 = dependencies[predicates2[i]];
+            if ((contains(dependencies1, head) && intersects(dependencies[body], dependencies2)) ||
+                    (contains(dependencies2, head) && intersects(dependencies[body], dependencies1)))
+                return true;
+        }
+        return false;
+    }
+
+    /** Fill the dependencies array from the edges of the graph (transitive closure) */
+    private void computeDependencies() {
+        for (int head = 0; head < numPredicates; head++) {
+            long[] row = dependencies[head];
+            for (int i = 0; i < row.length; i++)
+                row[i] = 0;
+            add(row, head);
+            for (int body = edges[head].nextSetBit(0); body >= 0; body = edges[head].nextSetBit(body + 1))
+                add(row, body);
+        }
+        closeTransitively(dependencies);
+    }
+
+    @Override
+    protected ESat checkEntailment() {
+        long[][] dependencies = new long[numPredicates][this.dependencies[0].length];
+        for (int i = 0; i < numPredicates; i++)
+            add(dependencies[i], i);
+        boolean allDetermined = addDeterminedEdges(dependencies);
+        closeTransitively(dependencies);
+        if (anyPairDependent(dependencies))
+            return ESat.FALSE;
+        if (allDetermined)
+            return ESat.TRUE;
+        return ESat.UNDEFINED;
+    }
+
+    private boolean anyPairDependent(long[][] dependencies) {
+        for (int i = 0; i < predicates1.length; i++)
+            if (intersects(dependencies[predicates1[i]], dependencies[predicates2[i]]))
+                return true;
+        return false;
+    }
+
+    /** Warshall's algorithm over rows of bitsets */
+    private static void closeTransitively(long[][] sets) {
+        for (int k = 0; k < sets.length; k++)
+            for (long[] row : sets)
+                if (contains(row, k))
+                    for (int i = 0; i < row.length; i++)
+                        row[i] |= sets[k][i];
+    }
+
+    static void add(long[] set, int element) {
+        set[element / Long.SIZE] |= 1L << (element % Long.SIZE);
+    }
+
+    private static boolean contains(long[] set, int element) {
+        return (set[element / Long.SIZE] & (1L << (element % Long.SIZE))) != 0;
+    }
+
+    private static boolean intersects(long[] set1, long[] set2) {
+        for (int i = 0; i < set1.length; i++)
+            if ((set1[i] & set2[i]) != 0)
+                return true;
+        return false;
+    }
+}
@@ -1,94 +1,54 @@
 package propagators;
 
 import model.IndependentPair;
-import org.chocosolver.solver.constraints.Propagator;
-import org.chocosolver.solver.exception.ContradictionException;
+import model.Program;
+import model.Token;
 import org.chocosolver.solver.variables.IntVar;
-import org.chocosolver.util.ESat;
 import org.chocosolver.util.tools.ArrayUtils;
-import propagators.dependencies.Dependency;
-import propagators.dependencies.Status;
 
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
-/** A custom constraint for the independence of two predicates */
-public class IndependencePropagator extends Propagator<IntVar> {
+/** A custom constraint for the independence of pairs of predicates, i.e., there must be no predicate that both
+ * predicates of a pair depend on. One propagator handles all the (unconditional) pairs of a program. An edge is sure
+ * to exist as soon as the head and a body predicate of some clause are determined. */
+public class IndependencePropagator extends DependencyGraphPropagator {
 
-    private IntVar[][] adjacencyMatrix;
-    private int predicate1;
-    private int predicate2;
-
-    public IndependencePropagator(IntVar[][] adjacencyMatrix, IndependentPair independentPair,
-                                  List<String> predicates) {
-        super(ArrayUtils.flatten(adjacencyMatrix));
-        this.adjacencyMatrix = adjacencyMatrix;
-        predicate1 = IndependentPair.toInt(predicates, independentPair.predicate1);
-        predicate2 = IndependentPair.toInt(predicates, independentPair.predicate2);
+    public IndependencePropagator(List<IndependentPair> independentPairs, Program program) {
+        super(constructVariables(program), program, toInts(independentPairs, program, true),
+                toInts(independentPairs, program, false));
     }
 
-    @Override
-    public void propagate(int evtmask) throws ContradictionException {
-        Set<Dependency> dependencies1 = getDependencies(predicate1, false);
-        Set<Dependency> dependencies2 = getDependencies(predicate2, false);
-        for (Dependency dependency1 : dependencies1) {
-            for (Dependency dependency2 : dependencies2) {
-                if (dependency1.getPredicate() == dependency2.getPredicate()) {
-                    if (dependency1.getStatus() == Status.DETERMINED && dependency2.getStatus() == Status.DETERMINED)
-                        fails();
-                    if (dependency1.getStatus() == Status.DETERMINED) {
-                        adjacencyMatrix[dependency2.getSource()][dependency2.getTarget()].removeValue(1, this);
-                    } else if (dependency2.getStatus() == Status.DETERMINED) {
-                        adjacencyMatrix[dependency1.getSource()][dependency1.getTarget()].removeValue(1, this);
-                    }
-                }
-            }
-        }
+    private static IntVar[] constructVariables(Program program) {
+        IntVar[] variables = program.clauseAssignments;
+        for (int i = 0; i < program.bodies.length; i++)
+            variables = ArrayUtils.concat(variables, program.bodies[i].getPredicates());
+        return variables;
     }
 
-    @Override
-    public ESat isEntailed() {
-        Set<Dependency> dependencies1 = getDependencies(predicate1, true);
-        Set<Dependency> dependencies2 = getDependencies(predicate2, true);
-        for (Dependency dependency1 : dependencies1) {
-            for (Dependency dependency2 : dependencies2) {
-                if (dependency1.getPredicate() == dependency2.getPredicate()) {
-                    if (dependency1.getStatus() == Status.DETERMINED && dependency2.getStatus() == Status.DETERMINED)
-                        return ESat.FALSE;
-                    return ESat.UNDEFINED;
-                }
-            }
+    private static int[] toInts(List<IndependentPair> independentPairs, Program program, boolean first) {
+        int[] predicates = new int[independentPairs.size()];
+        for (int i = 0; i < independentPairs.size(); i++) {
+            IndependentPair pair = independentPairs.get(i);
+            predicates[i] = IndependentPair.toInt(program.config.predicates, first ? pair.predicate1 : pair.predicate2);
         }
-        return ESat.TRUE;
+        return predicates;
     }
 
-    private Set<Dependency> getDependencies(int initialPredicate, boolean allDependencies) {
-        Set<Dependency> dependencies = new HashSet<>();
-        dependencies.add(new Dependency(initialPredicate, true));
-        while (true) {
-            Set<Dependency> newDependencies = new HashSet<>();
-            for (Dependency dependency : dependencies) {
-                for (int i = 0; i < adjacencyMatrix.length; i++) {
-                    boolean edgeIsDetermined = adjacencyMatrix[i][dependency.getPredicate()].getDomainSize() == 1;
-                    boolean edgeExists = edgeIsDetermined &&
-                            adjacencyMatrix[i][dependency.getPredicate()].getValue() == 1;
-                    if (edgeExists && dependency.getStatus() == Status.DETERMINED) {
-                        newDependencies.add(new Dependency(i, true));
-                    } else if (edgeExists && dependency.getStatus() == Status.ALMOST_DETERMINED) {
-                        newDependencies.add(new Dependency(i, dependency.getSource(), dependency.getTarget()));
-                    } else if (!edgeIsDetermined && dependency.getStatus() == Status.DETERMINED) {
-                        newDependencies.add(new Dependency(i, i, dependency.getPredicate()));
-                    } else if (allDependencies && !edgeIsDetermined) {
-                        newDependencies.add(new Dependency(i, false));
-                    }
+    @Override
+    protected boolean addDeterminedEdges(long[][] dependencies) {
+        boolean allDetermined = true;
+        for (int clause = 0; clause < clauseAssignments.length; clause++) {
+            IntVar head = clauseAssignments[clause];
+            for (IntVar value : values[clause]) {
+                if (!head.isInstantiated() || !value.isInstantiated()) {
+                    allDetermined = false;
+                    continue;
                 }
+                int bodyPredicate = value.getValue() - Token.values().length;
+                if (head.getValue() != numPredicates && bodyPredicate >= 0)
+                    add(dependencies[head.getValue()], bodyPredicate);
             }
-            int previousSize = dependencies.size();
-            dependencies.addAll(newDependencies);
-            if (dependencies.size() == previousSize)
-                break;
         }
-        return dependencies;
+        return allDetermined;
     }
 }
@@ -2,29 +2,55 @@ package propagators;
 
 import model.Body;
 import model.ForbidCycles;
-import org.chocosolver.solver.constraints.Propagator;
+import org.chocosolver.memory.IEnvironment;
+import org.chocosolver.memory.IStateBitSet;
+import org.chocosolver.solver.constraints.PropagatorPriority;
 import org.chocosolver.solver.exception.ContradictionException;
 import org.chocosolver.solver.variables.IntVar;
+import org.chocosolver.solver.variables.events.IntEventType;
 import org.chocosolver.util.ESat;
 import org.chocosolver.util.tools.ArrayUtils;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-
-/** A simple propagator to check if the program contains negative cycles (or any cycles) */
-public class NegativeCyclePropagator extends Propagator<IntVar> {
-
-    private IntVar[] clauseAssignments;
-    private Body[] bodies;
-    private ForbidCycles forbidCycles;
-    private List<List<SignedPredicate>> adjacencyList;
-
-    public NegativeCyclePropagator(IntVar[] clauseAssignments, Body[] bodies, ForbidCycles forbidCycles) {
-        super(constructDecisionVariables(clauseAssignments, bodies));
+/** A propagator to check if the program contains negative cycles (or any cycles). The dependency graph of all
+ * determined clauses is kept in backtrackable storage and updated one clause at a time, so each new edge only needs
+ * to be checked against the existing graph. */
+public class NegativeCyclePropagator extends ProfiledPropagator {
+
+    private final IntVar[] clauseAssignments;
+    private final Body[] bodies;
+    private final boolean forbidAllCycles;
+    private final int numPredicates;
+    private final int numStructuralVariables; // per clause
+
+    // Edges of the dependency graph, from head predicates to body predicates, split by sign
+    private final IStateBitSet[] positiveEdges;
+    private final IStateBitSet[] negativeEdges;
+    private final IStateBitSet determinedClauses; // clauses whose edges are already in the graph
+
+    // Reusable memory for the search. Each state is a predicate and whether a negative edge has been encountered.
+    private final int[] queue;
+    private final int[] visited; // visited[state] == searchId means that the state was visited in this search
+    private int searchId;
+
+    public NegativeCyclePropagator(IntVar[] clauseAssignments, Body[] bodies, ForbidCycles forbidCycles,
+                                   int numPredicates) {
+        super(constructDecisionVariables(clauseAssignments, bodies), PropagatorPriority.LINEAR, true);
         this.clauseAssignments = clauseAssignments;
         this.bodies = bodies;
-        this.forbidCycles = forbidCycles;
+        this.forbidAllCycles = forbidCycles == ForbidCycles.ALL;
+        this.numPredicates = numPredicates;
+        numStructuralVariables = bodies[0].getStructuralDecisionVariables().length;
+
+        IEnvironment environment = model.getEnvironment();
+        positiveEdges = new IStateBitSet[numPredicates];
+        negativeEdges = new IStateBitSet[numPredicates];
+        for (int i = 0; i < numPredicates; i++) {
+            positiveEdges[i] = environment.makeBitSet(numPredicates);
+            negativeEdges[i] = environment.makeBitSet(numPredicates);
+        }
+        determinedClauses = environment.makeBitSet(bodies.length);
+        queue = new int[2 * numPredicates];
+        visited = new int[2 * numPredicates];
     }
 
     static IntVar[] constructDecisionVariables(IntVar[] clauseAssignments, Body[] bodies) {
@@ -35,9 +61,85 @@ public class NegativeCyclePropagator extends Propagator<IntVar> {
     }
 
     @Override
-    public void propagate(int evtmask) throws ContradictionException {
-        if (isEntailed() == ESat.FALSE)
-            fails();
+    public int getPropagationConditions(int vIdx) {
+        return IntEventType.instantiation();
+    }
+
+    @Override
+    protected void coarsePropagate(int evtmask) throws ContradictionException {
+        for (int i = 0; i < bodies.length; i++)
+            if (!determinedClauses.get(i) && isDetermined(i))
+                addClause(i);
+    }
+
+    @Override
+    protected void finePropagate(int idxVarInProp, int mask) throws ContradictionException {
+        int clause = idxVarInProp < clauseAssignments.length ? idxVarInProp :
+                (idxVarInProp - clauseAssignments.length) / numStructuralVariables;
+        if (!determinedClauses.get(clause) && isDetermined(clause))
+            addClause(clause);
+    }
+
+    private boolean isDetermined(int clause) {
+        if (!clauseAssignments[clause].isInstantiated())
+            return false;
+        for (IntVar v : bodies[clause].getStructuralDecisionVariables())
+            if (!v.isInstantiated())
+                return false;
+        return true;
+    }
+
+    /** Add the edges of a newly determined clause to the graph, failing if any of them closes a forbidden cycle */
+    private void addClause(int clause) throws ContradictionException {
+        determinedClauses.set(clause);
+        int head = clauseAssignments[clause].getValue();
+        if (head == numPredicates) // the clause is disabled
+            return;
+        Body body = bodies[clause];
+        for (int i = body.collectSignedPredicates() - 1; i >= 0; i--) {
+            int predicate = SignedPredicate.getIndex(body.getSignedPredicate(i));
+            boolean negative = SignedPredicate.isNegative(body.getSignedPredicate(i));
+            IStateBitSet[] edges = negative ? negativeEdges : positiveEdges;
+            if (edges[head].get(predicate))
+                continue;
+            if (closesForbiddenCycle(head, predicate, negative))
+                fails();
+            edges[head].set(predicate);
+        }
+    }
+
+    /** Would an edge from head to body create a forbidden cycle, i.e., is there a path back from body to head (with
+     * at least one negative edge unless the new edge is negative or all cycles are forbidden)? */
+    private boolean closesForbiddenCycle(int head, int body, boolean negative) {
+        searchId++;
+        int target = 2 * head + 1;
+        int start = 2 * body + (negative || forbidAllCycles ? 1 : 0);
+        int first = 0;
+        int last = 0;
+        queue[last++] = start;
+        visited[start] = searchId;
+        while (first < last) {
+            int state = queue[first++];
+            if (state == target)
+                return true;
+            int predicate = state / 2;
+            int encounteredNegativeEdge = state % 2;
+            for (int next = positiveEdges[predicate].nextSetBit(0); next >= 0;
+                 next = positiveEdges[predicate].nextSetBit(next + 1))
+                last = visit(2 * next + encounteredNegativeEdge, last);
+            for (int next = negativeEdges[predicate].nextSetBit(0); next >= 0;
+                 next = negativeEdges[predicate].nextSetBit(next + 1))
+                last = visit(2 * next + 1, last);
+        }
+        return false;
+    }
+
+    private int visit(int state, int last) {
+        if (visited[state] != searchId) {
+            visited[state] = searchId;
+            queue[last++] = state;
+        }
+        return last;
     }
 
     /**
@@ -46,83 +148,44 @@ public class NegativeCyclePropagator extends Propagator<IntVar> {
      UNDEFINED: it may or may not contain a negative cycle.
      */
     @Override
-    public ESat isEntailed() {
-        // Find all clauses whose structure is completely determined
-        List<Integer> determinedClauses = new LinkedList<>();
+    protected ESat checkEntailment() {
+        // Construct the graph of all clauses whose structure is completely determined
+        boolean[][] reachable = new boolean[numPredicates][numPredicates];
+        boolean[][] negative = new boolean[numPredicates][numPredicates];
+        boolean allDetermined = true;
         for (int i = 0; i < bodies.length; i++) {
-            if (clauseAssignments[i].getDomainSize() != 1)
+            if (!isDetermined(i)) {
+                allDetermined = false;
                 continue;
-            boolean determined = true;
-            for (IntVar v : bodies[i].getStructuralDecisionVariables()) {
-                if (v.getDomainSize() != 1) {
-                    determined = false;
-                    break;
-                }
             }
-            if (determined)
-                determinedClauses.add(i);
-        }
-
-        if (determinedClauses.isEmpty())
-            return ESat.UNDEFINED;
-
-        // Construct a list of unique predicates that we're considering
-        List<Integer> predicates = new ArrayList<>();
-        for (int i : determinedClauses) {
-            int predicate = clauseAssignments[i].getValue();
-            if (predicates.isEmpty() || predicates.get(predicates.size() - 1) != predicate) {
-                predicates.add(predicate);
+            int head = clauseAssignments[i].getValue();
+            if (head == numPredicates)
+                continue;
+            for (int j = bodies[i].collectSignedPredicates() - 1; j >= 0; j--) {
+                int predicate = bodies[i].getSignedPredicate(j);
+                reachable[head][SignedPredicate.getIndex(predicate)] = true;
+                if (SignedPredicate.isNegative(predicate) || forbidAllCycles)
+                    negative[head][SignedPredicate.getIndex(predicate)] = true;
             }
         }
 
-        // Construct the graph
-        adjacencyList = new ArrayList<>();
-        for (int i = 0; i < predicates.size(); i++)
-            adjacencyList.add(new LinkedList<>());
-        for (int i : determinedClauses) {
-            for (SignedPredicate predicate : bodies[i].getSignedPredicates()) {
-                int index1 = predicates.indexOf(clauseAssignments[i].getValue());
-                int index2 = predicates.indexOf(predicate.getIndex());
-                if (index2 == -1)
-                    continue;
-                // Renaming predicates to start from zero
-                adjacencyList.get(index1).add(new SignedPredicate(index2, predicate.getSign()));
-            }
-        }
+        // Transitive closure
+        for (int k = 0; k < numPredicates; k++)
+            for (int i = 0; i < numPredicates; i++)
+                if (reachable[i][k])
+                    for (int j = 0; j < numPredicates; j++)
+                        reachable[i][j] |= reachable[k][j];
 
-        // Check for cycles
-        int numNodes = adjacencyList.size();
-        boolean[] visited = new boolean[numNodes];
-        boolean[] recursionStack = new boolean[numNodes];
-        boolean forbidAllCycles = false;
-        if (this.forbidCycles == ForbidCycles.ALL)
-            forbidAllCycles = true;
-        for (int i = 0; i < numNodes; i++)
-            if (isCyclic(i, forbidAllCycles, visited, recursionStack))
-                return ESat.FALSE;
+        // A forbidden cycle is a (forbidden) edge with a path back to its source
+        for (int i = 0; i < numPredicates; i++)
+            for (int j = 0; j < numPredicates; j++)
+                if (negative[i][j] && (i == j || reachable[j][i]))
+                    return ESat.FALSE;
 
         // If there is no negative cycle and the program is fully determined, then (and only then) can we say that
         // the constraint is satisfied
-        if (determinedClauses.size() == bodies.length)
+        if (allDetermined)
             return ESat.TRUE;
         return ESat.UNDEFINED;
     }
-
-    private boolean isCyclic(int node, boolean encounteredNegativeEdge, boolean[] visited, boolean[] recursionStack) {
-        // Mark the current node as visited and part of recursion stack
-        if (recursionStack[node] && encounteredNegativeEdge)
-            return true;
-        if (visited[node])
-            return false;
-        visited[node] = true;
-        recursionStack[node] = true;
-
-        for (SignedPredicate p : adjacencyList.get(node))
-            if (isCyclic(p.getIndex(), encounteredNegativeEdge || p.getSign() == Sign.NEG,
-                    visited, recursionStack))
-                return true;
-
-        recursionStack[node] = false;
-        return false;
-    }
 }
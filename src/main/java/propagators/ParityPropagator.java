@@ -0,0 +1,71 @@
+package propagators;
+
+import org.chocosolver.solver.constraints.PropagatorPriority;
+import org.chocosolver.solver.exception.ContradictionException;
+import org.chocosolver.solver.variables.IntVar;
+import org.chocosolver.solver.variables.events.IntEventType;
+import org.chocosolver.util.ESat;
+
+/** A random XOR constraint over integer variables: each value of each variable is mapped to a bit by a random hash
+ * function (determined by the key), and the bits of all variables must add up to the given parity. Filtering happens
+ * once all but one of the variables are instantiated. */
+public class ParityPropagator extends ProfiledPropagator {
+
+    private final long key;
+    private final int parity;
+
+    public ParityPropagator(IntVar[] variables, long key, int parity) {
+        super(variables, PropagatorPriority.LINEAR, false);
+        this.key = key;
+        this.parity = parity;
+    }
+
+    @Override
+    public int getPropagationConditions(int vIdx) {
+        return IntEventType.instantiation();
+    }
+
+    @Override
+    protected void coarsePropagate(int evtmask) throws ContradictionException {
+        int sum = 0;
+        int free = -1;
+        for (int i = 0; i < vars.length; i++) {
+            if (vars[i].isInstantiated()) {
+                sum ^= bit(i, vars[i].getValue());
+            } else if (free == -1) {
+                free = i;
+            } else {
+                return; // at least two free variables, so any parity is still possible
+            }
+        }
+        if (free == -1) {
+            if (sum != parity)
+                fails();
+            return;
+        }
+        IntVar last = vars[free];
+        int required = sum ^ parity;
+        for (int v = last.getLB(); v != Integer.MAX_VALUE; v = last.nextValue(v))
+            if (bit(free, v) != required)
+                last.removeValue(v, this);
+    }
+
+    @Override
+    protected ESat checkEntailment() {
+        int sum = 0;
+        for (int i = 0; i < vars.length; i++) {
+            if (!vars[i].isInstantiated())
+                return ESat.UNDEFINED;
+            sum ^= bit(i, vars[i].getValue());
+        }
+        return ESat.eval(sum == parity);
+    }
+
+    /** The hash of a value of the i-th variable (the SplitMix64 finaliser) */
+    private int bit(int i, int value) {
+        long z = key + (((long) i << 32) | (value & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return (int) ((z ^ (z >>> 31)) & 1);
+    }
+}
@@ -0,0 +1,77 @@
+package propagators;
+
+import org.chocosolver.solver.constraints.Propagator;
+import org.chocosolver.solver.constraints.PropagatorPriority;
+import org.chocosolver.solver.exception.ContradictionException;
+import org.chocosolver.solver.variables.IntVar;
+import org.chocosolver.util.ESat;
+
+/** A propagator that can time its own calls. The propagation engine calls propagators directly, so this is the only
+ * place where they can be measured. Without a PropagationProfile, the only overhead is a null check. */
+public abstract class ProfiledPropagator extends Propagator<IntVar> {
+
+    private PropagationProfile.Statistics statistics; // null unless profiling
+
+    protected ProfiledPropagator(IntVar[] vars, PropagatorPriority priority, boolean reactToFineEvt) {
+        super(vars, priority, reactToFineEvt);
+    }
+
+    protected ProfiledPropagator(IntVar... vars) {
+        super(vars);
+    }
+
+    void setStatistics(PropagationProfile.Statistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /** What propagate(int evtmask) would normally do */
+    protected abstract void coarsePropagate(int evtmask) throws ContradictionException;
+
+    /** What propagate(int idxVarInProp, int mask) would normally do (only needed when reacting to fine events) */
+    protected void finePropagate(int idxVarInProp, int mask) throws ContradictionException {
+        throw new UnsupportedOperationException("the propagator doesn't react to fine events");
+    }
+
+    /** What isEntailed() would normally do */
+    protected abstract ESat checkEntailment();
+
+    @Override
+    public final void propagate(int evtmask) throws ContradictionException {
+        if (statistics == null) {
+            coarsePropagate(evtmask);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            coarsePropagate(evtmask);
+        } finally {
+            statistics.addPropagation(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public final void propagate(int idxVarInProp, int mask) throws ContradictionException {
+        if (statistics == null) {
+            finePropagate(idxVarInProp, mask);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            finePropagate(idxVarInProp, mask);
+        } finally {
+            statistics.addPropagation(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public final ESat isEntailed() {
+        if (statistics == null)
+            return checkEntailment();
+        long start = System.nanoTime();
+        try {
+            return checkEntailment();
+        } finally {
+            statistics.addEntailmentCheck(System.nanoTime() - start);
+        }
+    }
+}
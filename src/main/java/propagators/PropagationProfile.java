@@ -0,0 +1,208 @@
+package propagators;
+
+import org.chocosolver.solver.ICause;
+import org.chocosolver.solver.Model;
+import org.chocosolver.solver.constraints.Constraint;
+import org.chocosolver.solver.constraints.Propagator;
+import org.chocosolver.solver.exception.ContradictionException;
+import org.chocosolver.solver.propagation.PropagationEngine;
+import org.chocosolver.solver.search.loop.monitors.IMonitorContradiction;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Opt-in statistics on where propagation time goes, with one row per propagator class and constraint name (e.g.,
+ * NegativeCyclePropagator and "NoNegativeCycles", or PropXplusYeqZ and "ARITHM"):
+ * - calls and entailment checks, each with their times (total and percentiles), for every ProfiledPropagator;
+ * - failures for every propagator, built-in or not;
+ * - a PropagationEngine row with the number and times of all fixpoint computations (including the time spent in
+ *   ProfiledPropagators) and the total number of failures.
+ * Built-in propagators are called directly by the engine, so their calls can't be timed one by one. The difference
+ * between the engine row and the ProfiledPropagator rows is the time spent in built-in constraints. */
+public class PropagationProfile implements IMonitorContradiction {
+
+    public static final String HEADER = "propagator;constraint;calls;totalMs;p50Us;p90Us;p99Us;maxUs;" +
+            "entailmentChecks;entailmentTotalMs;entailmentP50Us;entailmentP90Us;entailmentP99Us;entailmentMaxUs;" +
+            "failures";
+
+    private final Model model;
+    private final Map<String, Statistics> statistics = new LinkedHashMap<>(); // by propagator class and constraint
+    private final Map<Propagator<?>, Statistics> byPropagator = new IdentityHashMap<>();
+    private final Statistics engine = new Statistics("PropagationEngine", "all constraints");
+
+    /** Must be created after all constraints are posted but before solving */
+    public PropagationProfile(Model model) {
+        this.model = model;
+        for (Constraint constraint : model.getCstrs())
+            track(constraint);
+        model.getSolver().setEngine(new TimedEngine(model));
+        model.getSolver().plugMonitor(this);
+    }
+
+    /** Forget all statistics and start again (the solver forgets its monitors when it is reset) */
+    public void restart() {
+        statistics.values().forEach(Statistics::clear);
+        engine.clear();
+        model.getSolver().plugMonitor(this);
+    }
+
+    /** Timing only works for constraints that are posted at the start, but failures are counted for all of them */
+    private void track(Constraint constraint) {
+        for (Propagator<?> propagator : constraint.getPropagators()) {
+            Statistics s = getStatistics(propagator);
+            if (propagator instanceof ProfiledPropagator)
+                ((ProfiledPropagator) propagator).setStatistics(s);
+        }
+    }
+
+    private Statistics getStatistics(Propagator<?> propagator) {
+        return byPropagator.computeIfAbsent(propagator, p -> {
+            String name = p.getConstraint() == null ? "-" : p.getConstraint().getName();
+            return getStatistics(p.getClass().getSimpleName(), name);
+        });
+    }
+
+    private Statistics getStatistics(String propagator, String constraint) {
+        return statistics.computeIfAbsent(propagator + ";" + constraint, k -> new Statistics(propagator, constraint));
+    }
+
+    @Override
+    public void onContradiction(ContradictionException cex) {
+        engine.failures++;
+        ICause cause = cex.c;
+        if (cause instanceof Propagator) {
+            getStatistics((Propagator<?>) cause).failures++;
+        } else {
+            getStatistics(cause == null ? "-" : cause.getClass().getSimpleName(), "-").failures++;
+        }
+    }
+
+    /** One row (starting with the prefix) for each propagator and constraint that was called or failed */
+    public String toCSV(String prefix) {
+        StringBuilder csv = new StringBuilder();
+        engine.appendTo(csv, prefix);
+        for (Statistics s : statistics.values())
+            if (s.propagations.calls > 0 || s.entailmentChecks.calls > 0 || s.failures > 0)
+                s.appendTo(csv, prefix);
+        return csv.toString();
+    }
+
+    /** Times every fixpoint computation */
+    private class TimedEngine extends PropagationEngine {
+
+        TimedEngine(Model model) {
+            super(model);
+        }
+
+        @Override
+        public void propagate() throws ContradictionException {
+            long start = System.nanoTime();
+            try {
+                super.propagate();
+            } finally {
+                engine.addPropagation(System.nanoTime() - start);
+            }
+        }
+    }
+
+    static class Statistics {
+
+        private final String propagator;
+        private final String constraint;
+        private final Timings propagations = new Timings();
+        private final Timings entailmentChecks = new Timings();
+        private long failures;
+
+        Statistics(String propagator, String constraint) {
+            this.propagator = propagator;
+            this.constraint = constraint;
+        }
+
+        void addPropagation(long time) {
+            propagations.add(time);
+        }
+
+        void addEntailmentCheck(long time) {
+            entailmentChecks.add(time);
+        }
+
+        void clear() {
+            propagations.clear();
+            entailmentChecks.clear();
+            failures = 0;
+        }
+
+        void appendTo(StringBuilder csv, String prefix) {
+            csv.append(prefix).append(';').append(propagator).append(';').append(constraint).append(';');
+            propagations.appendTo(csv);
+            entailmentChecks.appendTo(csv);
+            csv.append(failures).append(System.lineSeparator());
+        }
+    }
+
+    /** The number of calls of one kind, their total time, and a histogram of their times */
+    private static class Timings {
+
+        // Times are kept in a histogram with four buckets per power of two, so percentiles are within 25%
+        private static final int SUB_BUCKETS = 4;
+        private static final int NUM_BUCKETS = SUB_BUCKETS * (Long.SIZE - 1);
+
+        private long calls;
+        private long totalTime;
+        private long maxTime;
+        private final long[] histogram = new long[NUM_BUCKETS];
+
+        void add(long time) {
+            calls++;
+            totalTime += time;
+            maxTime = Math.max(maxTime, time);
+            histogram[bucket(time)]++;
+        }
+
+        void clear() {
+            calls = 0;
+            totalTime = 0;
+            maxTime = 0;
+            Arrays.fill(histogram, 0);
+        }
+
+        /** The calls, total time in milliseconds, and percentiles and maximum in microseconds, each followed by ; */
+        void appendTo(StringBuilder csv) {
+            csv.append(calls).append(';').append(totalTime / 1e6).append(';')
+                    .append(percentile(0.5) / 1e3).append(';').append(percentile(0.9) / 1e3).append(';')
+                    .append(percentile(0.99) / 1e3).append(';').append(maxTime / 1e3).append(';');
+        }
+
+        /** An upper bound on the time of the call at the given quantile (in nanoseconds) */
+        private long percentile(double quantile) {
+            if (calls == 0)
+                return 0;
+            long rank = (long) Math.ceil(quantile * calls);
+            long seen = 0;
+            for (int b = 0; b < NUM_BUCKETS; b++) {
+                seen += histogram[b];
+                if (seen >= rank)
+                    return Math.min(upperBound(b), maxTime);
+            }
+            return maxTime;
+        }
+
+        /** Times below SUB_BUCKETS get a bucket each, then each power of two is split into SUB_BUCKETS buckets */
+        private static int bucket(long time) {
+            if (time < SUB_BUCKETS)
+                return (int) Math.max(time, 0);
+            int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(time); // at least 2
+            return SUB_BUCKETS * (exponent - 1) + (int) ((time >>> (exponent - 2)) & (SUB_BUCKETS - 1));
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS)
+                return bucket;
+            int exponent = bucket / SUB_BUCKETS + 1;
+            long subBucket = bucket % SUB_BUCKETS;
+            return ((SUB_BUCKETS + subBucket + 1) << (exponent - 2)) - 1;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package propagators;
+
+import org.chocosolver.solver.constraints.PropagatorPriority;
+import org.chocosolver.solver.exception.ContradictionException;
+import org.chocosolver.solver.variables.BoolVar;
+import org.chocosolver.solver.variables.IntVar;
+import org.chocosolver.util.ESat;
+import org.chocosolver.util.tools.ArrayUtils;
+
+/** hasRequiredFormula is true if and only if the body has a node with the operator of the required formula whose
+ * children include each of the required predicates. The body is given by its tree structure (the parent of each node,
+ * roots being their own parents) and the value of each node (tokens first, then predicates). */
+public class RequiredFormulaPropagator extends ProfiledPropagator {
+
+    private final IntVar[] structure;
+    private final IntVar[] values;
+    private final BoolVar hasRequiredFormula;
+    private final int operator;
+    private final int[] requiredPredicates; // shifted by Token.values().length (like node values)
+
+    public RequiredFormulaPropagator(IntVar[] structure, IntVar[] values, BoolVar hasRequiredFormula, int operator,
+                                     int[] requiredPredicates) {
+        super(ArrayUtils.concat(ArrayUtils.concat(structure, values), hasRequiredFormula),
+                PropagatorPriority.QUADRATIC, false);
+        this.structure = structure;
+        this.values = values;
+        this.hasRequiredFormula = hasRequiredFormula;
+        this.operator = operator;
+        this.requiredPredicates = requiredPredicates;
+    }
+
+    @Override
+    protected void coarsePropagate(int evtmask) throws ContradictionException {
+        // Our own changes can make more nodes (im)possible, and the engine doesn't call us again for them
+        while (filter())
+            ;
+    }
+
+    /** Returns whether any domain changed */
+    private boolean filter() throws ContradictionException {
+        int numPossibleParents = 0;
+        int possibleParent = -1;
+        for (int node = 0; node < values.length; node++) {
+            if (isCertainParent(node))
+                return hasRequiredFormula.setToTrue(this);
+            if (isPossibleParent(node)) {
+                numPossibleParents++;
+                possibleParent = node;
+            }
+        }
+        if (numPossibleParents == 0)
+            return hasRequiredFormula.setToFalse(this);
+
+        boolean changed = false;
+        if (hasRequiredFormula.isInstantiatedTo(1) && numPossibleParents == 1) {
+            changed = makeParent(possibleParent);
+        } else if (hasRequiredFormula.isInstantiatedTo(0)) {
+            for (int node = 0; node < values.length; node++)
+                changed |= preventParent(node);
+        }
+        return changed;
+    }
+
+    /** The node is the only one that can have the formula, so it must have it */
+    private boolean makeParent(int node) throws ContradictionException {
+        boolean changed = values[node].instantiateTo(operator, this);
+        for (int predicate : requiredPredicates) {
+            int numCandidates = 0;
+            int candidate = -1;
+            for (int child = 0; child < values.length; child++) {
+                if (canBeChild(child, node, predicate)) {
+                    numCandidates++;
+                    candidate = child;
+                }
+            }
+            if (numCandidates == 1) {
+                changed |= structure[candidate].instantiateTo(node, this);
+                changed |= values[candidate].instantiateTo(predicate, this);
+            }
+        }
+        return changed;
+    }
+
+    /** No node can have the formula. If the node is only one child away from having it, that child is removed. */
+    private boolean preventParent(int node) throws ContradictionException {
+        if (!values[node].contains(operator))
+            return false;
+        int numMissing = 0;
+        int missing = -1;
+        for (int predicate : requiredPredicates) {
+            if (!hasCertainChild(node, predicate)) {
+                numMissing++;
+                missing = predicate;
+            }
+        }
+        if (numMissing == 0)
+            return values[node].removeValue(operator, this);
+        if (numMissing > 1 || !values[node].isInstantiated())
+            return false;
+
+        boolean changed = false;
+        for (int child = 0; child < values.length; child++) {
+            if (child == node)
+                continue;
+            if (structure[child].isInstantiatedTo(node)) {
+                changed |= values[child].removeValue(missing, this);
+            } else if (values[child].isInstantiatedTo(missing)) {
+                changed |= structure[child].removeValue(node, this);
+            }
+        }
+        return changed;
+    }
+
+    private boolean isCertainParent(int node) {
+        if (!values[node].isInstantiatedTo(operator))
+            return false;
+        for (int predicate : requiredPredicates)
+            if (!hasCertainChild(node, predicate))
+                return false;
+        return true;
+    }
+
+    private boolean isPossibleParent(int node) {
+        if (!values[node].contains(operator))
+            return false;
+        for (int predicate : requiredPredicates) {
+            boolean found = false;
+            for (int child = 0; child < values.length && !found; child++)
+                found = canBeChild(child, node, predicate);
+            if (!found)
+                return false;
+        }
+        return true;
+    }
+
+    private boolean hasCertainChild(int node, int predicate) {
+        for (int child = 0; child < values.length; child++)
+            if (child != node && structure[child].isInstantiatedTo(node) && values[child].isInstantiatedTo(predicate))
+                return true;
+        return false;
+    }
+
+    private boolean canBeChild(int child, int node, int predicate) {
+        return child != node && structure[child].contains(node) && values[child].contains(predicate);
+    }
+
+    @Override
+    protected ESat checkEntailment() {
+        int value = 0; // the value that hasRequiredFormula must have, or -1 if it's not known yet
+        for (int node = 0; node < values.length; node++) {
+            if (isCertainParent(node)) {
+                value = 1;
+                break;
+            }
+            if (isPossibleParent(node))
+                value = -1;
+        }
+        if (value == -1)
+            return ESat.UNDEFINED;
+        if (!hasRequiredFormula.contains(value))
+            return ESat.FALSE;
+        return hasRequiredFormula.isInstantiated() ? ESat.TRUE : ESat.UNDEFINED;
+    }
+}
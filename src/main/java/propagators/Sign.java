@@ -1,5 +0,0 @@
-package propagators;
-
-public enum Sign {
-    POS, NEG
-}
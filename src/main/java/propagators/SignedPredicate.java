@@ -1,25 +1,21 @@
 package propagators;
 
+/** A predicate index together with whether the predicate is negated, packed into an int (the index shifted left by
+ * one, with the lowest bit set for negative predicates) so that they can be stored in primitive arrays */
 public class SignedPredicate {
 
-    private int index;
-    private Sign sign;
-
-    public SignedPredicate(int index, Sign sign) {
-        this.index = index;
-        this.sign = sign;
+    private SignedPredicate() {
     }
 
-    int getIndex() {
-        return index;
+    public static int encode(int index, boolean negative) {
+        return index << 1 | (negative ? 1 : 0);
     }
 
-    Sign getSign() {
-        return sign;
+    static int getIndex(int signedPredicate) {
+        return signedPredicate >> 1;
     }
 
-    /** We can only go from positive to negative, but not vice-versa */
-    public void setNegative() {
-        sign = Sign.NEG;
+    static boolean isNegative(int signedPredicate) {
+        return (signedPredicate & 1) != 0;
     }
 }
@@ -0,0 +1,114 @@
+package propagators;
+
+import org.chocosolver.solver.constraints.PropagatorPriority;
+import org.chocosolver.solver.exception.ContradictionException;
+import org.chocosolver.solver.variables.IntVar;
+import org.chocosolver.solver.variables.events.IntEventType;
+import org.chocosolver.util.ESat;
+
+/** Variable symmetry elimination for a clause. Given all the argument positions of the clause in order (values below
+ * numVariables are variables, everything else is a constant or an unused position), the variables that occur in the
+ * clause must be the last ones, introduced in order of first occurrence. For example, with variables X, Y, Z, the
+ * arguments (Y, a, Z, Y) are allowed, while (Z, Y) and (X, Y) are not.
+ *
+ * Scanning the determined prefix of positions tells which variables are already introduced, and the first
+ * undetermined position bounds the variables that can occur anywhere after it. */
+public class VariableIntroductionPropagator extends ProfiledPropagator {
+
+    private final int numVariables;
+
+    public VariableIntroductionPropagator(IntVar[] arguments, int numVariables) {
+        super(arguments, PropagatorPriority.LINEAR, false);
+        this.numVariables = numVariables;
+    }
+
+    @Override
+    public int getPropagationConditions(int vIdx) {
+        return IntEventType.instantiation();
+    }
+
+    @Override
+    protected void coarsePropagate(int evtmask) throws ContradictionException {
+        // Removing values can determine more positions, and the engine doesn't call us again for our own changes
+        while (filter())
+            ;
+    }
+
+    /** Returns whether any domain changed */
+    private boolean filter() throws ContradictionException {
+        // The variables introduced in the determined prefix are first, first + 1, ..., next - 1
+        int first = -1;
+        int next = -1;
+        int position = 0;
+        for (; position < vars.length && vars[position].isInstantiated(); position++) {
+            int value = vars[position].getValue();
+            if (value >= numVariables)
+                continue;
+            if (first == -1) {
+                first = value;
+                next = value + 1;
+            } else if (value == next) {
+                next++;
+            } else if (value < first || value > next) {
+                fails();
+            }
+        }
+        if (position == vars.length) {
+            if (first != -1 && next != numVariables)
+                fails();
+            return false;
+        }
+
+        // Each of the remaining positions that can hold a variable can introduce at most one more
+        int capacity = 0;
+        for (int i = position; i < vars.length; i++)
+            if (vars[i].getLB() < numVariables)
+                capacity++;
+        int smallest; // no remaining position can hold a variable below this one
+        int largest; // the largest variable that the current position can hold
+        if (first == -1) {
+            smallest = numVariables - capacity; // introducing it must leave room for all the variables after it
+            largest = numVariables - 1;
+        } else {
+            if (numVariables - next > capacity)
+                fails();
+            smallest = first;
+            largest = next;
+        }
+        boolean changed = false;
+        for (int i = position; i < vars.length; i++) {
+            IntVar argument = vars[i];
+            if (argument.getLB() >= numVariables)
+                continue;
+            if (smallest > 0)
+                changed |= argument.removeInterval(0, smallest - 1, this);
+            if (largest < numVariables - 1)
+                changed |= argument.removeInterval(largest + 1, numVariables - 1, this);
+            if (argument.getLB() < numVariables)
+                largest = Math.min(largest + 1, numVariables - 1);
+        }
+        return changed;
+    }
+
+    @Override
+    protected ESat checkEntailment() {
+        int first = -1;
+        int next = -1;
+        for (IntVar argument : vars) {
+            if (!argument.isInstantiated())
+                return ESat.UNDEFINED;
+            int value = argument.getValue();
+            if (value >= numVariables)
+                continue;
+            if (first == -1) {
+                first = value;
+                next = value + 1;
+            } else if (value == next) {
+                next++;
+            } else if (value < first || value > next) {
+                return ESat.FALSE;
+            }
+        }
+        return ESat.eval(first == -1 || next == numVariables);
+    }
+}
@@ -1,5 +0,0 @@
-package propagators.dependencies;
-
-public enum Status {
-    DETERMINED, ALMOST_DETERMINED, UNDETERMINED
-}
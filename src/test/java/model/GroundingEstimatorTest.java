@@ -0,0 +1,65 @@
+package model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GroundingEstimatorTest {
+
+    private static final int DOMAIN_SIZE = 100;
+
+    /** p(X) :- q(X, X, X). q(X, X, X) :- p(X). */
+    private static Program smallProgram() {
+        Config config = new Config(1, 2, "NONE", null, Arrays.asList("p", "q"), Arrays.asList(1, 3),
+                Arrays.asList("X"), new ArrayList<>(), new ArrayList<>(), null);
+        Program program = new Program(config, 0);
+        program.model.arithm(program.clauseAssignments[0], "=", 0).post();
+        program.model.arithm(program.clauseAssignments[1], "=", 1).post();
+        program.model.arithm(program.bodies[0].getPredicates()[0], "=", Token.values().length + 1).post();
+        program.model.arithm(program.bodies[1].getPredicates()[0], "=", Token.values().length).post();
+        assertTrue(program.solve());
+        return program;
+    }
+
+    @Test
+    public void smallProgramOverLargeDomainIsComplete() {
+        GroundingEstimator.Estimate estimate = new GroundingEstimator(smallProgram(), DOMAIN_SIZE).estimate(10000);
+        assertTrue(estimate.complete);
+        assertEquals(2 * DOMAIN_SIZE, estimate.numGroundRules);
+        assertEquals(2 * DOMAIN_SIZE, estimate.numGroundAtoms);
+        assertEquals(DOMAIN_SIZE, estimate.numCyclicComponents);
+        assertEquals(2, estimate.largestCyclicComponent);
+    }
+
+    @Test
+    public void programOverTheLimitIsTooBig() {
+        GroundingEstimator.Estimate estimate = new GroundingEstimator(smallProgram(), DOMAIN_SIZE).estimate(150);
+        assertFalse(estimate.complete);
+        assertTrue(estimate.tooBig);
+    }
+
+    @Test
+    public void runningOutOfWorkIsNotTooBig() {
+        GroundingEstimator.Estimate estimate = new GroundingEstimator(smallProgram(), DOMAIN_SIZE).estimate(10000, 50);
+        assertFalse(estimate.complete);
+        assertFalse(estimate.tooBig);
+    }
+
+    @Test
+    public void factsRestrictGrounding() {
+        GroundingEstimator estimator = new GroundingEstimator(smallProgram(), DOMAIN_SIZE);
+        estimator.addFact(0, new int[]{3});
+        estimator.addFact(1, new int[]{5, 5, 5});
+        estimator.addFact(1, new int[]{5, 6, 5});
+        GroundingEstimator.Estimate estimate = estimator.estimate(10000);
+        assertTrue(estimate.complete);
+        assertEquals(4, estimate.numGroundRules); // p(3), p(5), q(3, 3, 3), q(5, 5, 5)
+        assertEquals(5, estimate.numGroundAtoms);
+        assertEquals(2, estimate.numCyclicComponents);
+    }
+}